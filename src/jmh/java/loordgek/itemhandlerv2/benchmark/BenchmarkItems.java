@@ -0,0 +1,63 @@
+package loordgek.itemhandlerv2.benchmark;
+
+import loordgek.itemhandlerv2.itemhandler.IItemHandler;
+import net.minecraft.enchantment.Enchantment;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.init.Enchantments;
+import net.minecraft.init.Items;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+import java.util.Random;
+
+/**
+ * The items the benchmarks fill their inventories with.
+ */
+final class BenchmarkItems {
+    private static final Item[] ITEMS = {Items.STICK, Items.IRON_INGOT, Items.GOLD_INGOT, Items.DIAMOND, Items.REDSTONE,
+            Items.COAL, Items.WATER_BUCKET, Items.BUCKET, Items.DIAMOND_PICKAXE};
+
+    static {
+        Bootstrap.register();
+    }
+
+    private BenchmarkItems() {
+    }
+
+    static void init() {
+        // loading the class bootstraps minecraft
+    }
+
+    /**
+     * Creates a stack of a random item, tools get enchantments so some stacks carry NBT.
+     */
+    static ItemStack randomStack(Random random) {
+        Item item = ITEMS[random.nextInt(ITEMS.length)];
+        ItemStack stack = new ItemStack(item, 1 + random.nextInt(item.getItemStackLimit()));
+        if (item == Items.DIAMOND_PICKAXE) {
+            Enchantment enchantment = random.nextBoolean() ? Enchantments.EFFICIENCY : Enchantments.UNBREAKING;
+            stack.addEnchantment(enchantment, 1 + random.nextInt(3));
+        }
+        return stack;
+    }
+
+    /**
+     * Fills a share of the slots of the handler with random stacks.
+     */
+    static void fill(IItemHandler handler, double fillRatio, long seed) {
+        Random random = new Random(seed);
+        for (int slot = 0; slot < handler.size(); slot++) {
+            if (random.nextDouble() < fillRatio)
+                handler.setStack(slot, randomStack(random)).confirm();
+        }
+    }
+
+    static ItemStack[] randomStacks(int amount, long seed) {
+        Random random = new Random(seed);
+        ItemStack[] stacks = new ItemStack[amount];
+        for (int i = 0; i < amount; i++) {
+            stacks[i] = randomStack(random);
+        }
+        return stacks;
+    }
+}
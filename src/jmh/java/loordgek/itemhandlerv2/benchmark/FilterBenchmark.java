@@ -0,0 +1,65 @@
+package loordgek.itemhandlerv2.benchmark;
+
+import loordgek.itemhandlerv2.filter.FluidFilter;
+import loordgek.itemhandlerv2.filter.OreDictFilter;
+import net.minecraft.init.Items;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.fluids.FluidRegistry;
+import net.minecraftforge.fluids.FluidStack;
+import net.minecraftforge.oredict.OreDictionary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the filters tested against a chest worth of mixed stacks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({"9", "64", "512", "4096"})
+    public int size;
+
+    private ItemStack[] stacks;
+    private OreDictFilter oreDictFilter;
+    private FluidFilter fluidFilter;
+
+    @Setup
+    public void setup() {
+        BenchmarkItems.init();
+        OreDictionary.registerOre("ingotIron", Items.IRON_INGOT);
+        OreDictionary.registerOre("gemDiamond", Items.DIAMOND);
+        stacks = BenchmarkItems.randomStacks(size, 42);
+        oreDictFilter = new OreDictFilter("ingotIron");
+        fluidFilter = new FluidFilter(new FluidStack(FluidRegistry.WATER, 1000), FluidFilter.MatchingStrategy.EXCEEDED);
+    }
+
+    @Benchmark
+    public void oreDictFilter(Blackhole blackhole) {
+        for (ItemStack stack : stacks) {
+            blackhole.consume(oreDictFilter.test(stack));
+        }
+    }
+
+    @Benchmark
+    public void fluidFilter(Blackhole blackhole) {
+        for (ItemStack stack : stacks) {
+            blackhole.consume(fluidFilter.test(stack));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package loordgek.itemhandlerv2.benchmark;
+
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.filter.ItemFilter;
+import loordgek.itemhandlerv2.itemhandler.ItemHandler;
+import net.minecraft.init.Items;
+import net.minecraft.item.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+/**
+ * Throughput of the {@link ItemHandler} operations, run with the gc profiler to see the allocation rate.
+ * <p/>
+ * The planning benchmarks cancel their transaction and the confirming ones undo their change, so the inventory
+ * keeps its size and fill ratio for the whole run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemHandlerBenchmark {
+    @Param({"9", "64", "512", "4096"})
+    public int size;
+
+    @Param({"0.1", "0.5", "0.95"})
+    public double fillRatio;
+
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    private ItemHandler handler;
+    private ItemStack stick;
+    private IStackFilter filter;
+    private int slot;
+
+    @Setup
+    public void setup() {
+        BenchmarkItems.init();
+        handler = new ItemHandler(size, indexed);
+        BenchmarkItems.fill(handler, fillRatio, 42);
+        stick = new ItemStack(Items.STICK, 16);
+        filter = new ItemFilter(Items.STICK);
+        slot = size / 2;
+    }
+
+    @Benchmark
+    public void insertSlotPlan(Blackhole blackhole) {
+        blackhole.consume(handler.insert(slot, stick).cancel());
+    }
+
+    @Benchmark
+    public void insertPlan(Blackhole blackhole) {
+        blackhole.consume(handler.insert(stick).cancel());
+    }
+
+    @Benchmark
+    public void extractSlotPlan(Blackhole blackhole) {
+        blackhole.consume(handler.extract(slot, 1).cancel());
+    }
+
+    @Benchmark
+    public void extractFilterPlan(Blackhole blackhole) {
+        blackhole.consume(handler.extract(filter, 16).cancel());
+    }
+
+    @Benchmark
+    public void insertExtractConfirm(Blackhole blackhole) {
+        int inserted = stick.getCount() - handler.insert(stick).confirm().getResultAmount();
+        if (inserted > 0)
+            blackhole.consume(handler.extract(filter, inserted).confirm().getResultAmount());
+    }
+
+    @Benchmark
+    public void setStackConfirm(Blackhole blackhole) {
+        ItemStack stackInSlot = handler.getStackInSlot(slot);
+        handler.setStack(slot, stick).confirm();
+        blackhole.consume(handler.setStack(slot, stackInSlot).confirm());
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (ItemStack stack : handler) {
+            blackhole.consume(stack);
+        }
+    }
+
+    @Benchmark
+    public void forEachNonEmpty(Blackhole blackhole) {
+        handler.forEachNonEmpty((slot, stack) -> blackhole.consume(stack));
+    }
+
+    @Benchmark
+    public long parallelCount() {
+        return StreamSupport.stream(handler.nonEmptySpliterator(), true).mapToLong(ItemStack::getCount).sum();
+    }
+}
@@ -0,0 +1,59 @@
+package loordgek.itemhandlerv2.filter;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Matches the stacks matched by all of its filters, the cheapest filters are tested first.
+ */
+public class AndFilter implements IStackFilter {
+    private final IStackFilter[] filters;
+    private final int cost;
+    private final CandidateCache candidateItems;
+
+    public AndFilter(IStackFilter... filters) {
+        List<IStackFilter> flattened = new ArrayList<>();
+        for (IStackFilter filter : filters) {
+            if (filter instanceof AndFilter) {
+                for (IStackFilter child : ((AndFilter) filter).filters) {
+                    flattened.add(child);
+                }
+            } else flattened.add(filter);
+        }
+        flattened.sort(Comparator.comparingInt(IStackFilter::getCost));
+        this.filters = flattened.toArray(new IStackFilter[0]);
+
+        int cost = 0;
+        for (IStackFilter filter : this.filters) {
+            cost += filter.getCost();
+        }
+        this.cost = cost;
+        this.candidateItems = new CandidateCache(this.filters, true);
+    }
+
+    @Override
+    public boolean test(ItemStack stack) {
+        for (IStackFilter filter : filters) {
+            if (!filter.test(stack))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int getCost() {
+        return cost;
+    }
+
+    @Nullable
+    @Override
+    public Set<Item> getCandidateItems() {
+        return candidateItems.get();
+    }
+}
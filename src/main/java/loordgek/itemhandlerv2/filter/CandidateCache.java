@@ -0,0 +1,91 @@
+package loordgek.itemhandlerv2.filter;
+
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.item.Item;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+
+/**
+ * The candidate items of a filter made of other filters, built again when the candidates of one of them change.
+ * <p/>
+ * Filters whose candidates change, like {@link OreDictFilter}, hand out a new set when they do, so the sets of the
+ * filters are compared by reference on every call instead of copied once.
+ */
+final class CandidateCache {
+    private final IStackFilter[] filters;
+    /**
+     * Whether the candidates are the items all filters can match, or the items any of them can match.
+     */
+    private final boolean intersect;
+    @Nullable
+    private volatile Entry entry;
+
+    CandidateCache(IStackFilter[] filters, boolean intersect) {
+        this.filters = filters;
+        this.intersect = intersect;
+    }
+
+    @Nullable
+    Set<Item> get() {
+        Entry entry = this.entry;
+        if (entry == null || !entry.isCurrent(filters)) {
+            Set<Item>[] sets = getSets();
+            entry = new Entry(sets, intersect ? intersect(sets) : union(sets));
+            this.entry = entry;
+        }
+        return entry.candidates;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Item>[] getSets() {
+        Set<Item>[] sets = new Set[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            sets[i] = filters[i].getCandidateItems();
+        }
+        return sets;
+    }
+
+    @Nullable
+    private static Set<Item> intersect(Set<Item>[] sets) {
+        Set<Item> candidates = null;
+        for (Set<Item> items : sets) {
+            if (items != null) {
+                if (candidates == null)
+                    candidates = new ReferenceOpenHashSet<>(items);
+                else candidates.retainAll(items);
+            }
+        }
+        return candidates;
+    }
+
+    @Nullable
+    private static Set<Item> union(Set<Item>[] sets) {
+        Set<Item> candidates = new ReferenceOpenHashSet<>();
+        for (Set<Item> items : sets) {
+            if (items == null)
+                return null;
+            candidates.addAll(items);
+        }
+        return candidates;
+    }
+
+    private static final class Entry {
+        private final Set<Item>[] sets;
+        @Nullable
+        private final Set<Item> candidates;
+
+        private Entry(Set<Item>[] sets, @Nullable Set<Item> candidates) {
+            this.sets = sets;
+            this.candidates = candidates;
+        }
+
+        private boolean isCurrent(IStackFilter[] filters) {
+            for (int i = 0; i < filters.length; i++) {
+                if (sets[i] != filters[i].getCandidateItems())
+                    return false;
+            }
+            return true;
+        }
+    }
+}
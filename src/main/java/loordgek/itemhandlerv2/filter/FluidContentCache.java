@@ -0,0 +1,53 @@
+package loordgek.itemhandlerv2.filter;
+
+import loordgek.itemhandlerv2.itemhandler.ItemKey;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.fluids.FluidStack;
+import net.minecraftforge.fluids.FluidUtil;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the fluid contained in a stack per item identity, including the items that are not a container at all,
+ * so testing the same stacks again skips the capability lookup.
+ * <p/>
+ * Containers that keep their fluid outside of the stack NBT are not seen changing. Filters are tested on worker
+ * threads too, so the cache is a concurrent map.
+ */
+final class FluidContentCache {
+    private static final int MAX_SIZE = 4096;
+    private static final Content NOT_A_CONTAINER = new Content(null);
+    private static final Map<ItemKey, Content> contents = new ConcurrentHashMap<>();
+
+    private FluidContentCache() {
+    }
+
+    /**
+     * Same as {@link FluidUtil#getFluidContained(ItemStack)}, the returned stack is shared and must not be modified.
+     */
+    @Nullable
+    static FluidStack getFluidContained(ItemStack stack) {
+        if (stack.isEmpty())
+            return null;
+        Content content = contents.get(ItemKey.of(stack));
+        if (content == null) {
+            FluidStack fluid = FluidUtil.getFluidContained(stack);
+            content = fluid == null ? NOT_A_CONTAINER : new Content(fluid);
+            if (contents.size() >= MAX_SIZE)
+                contents.clear();
+            contents.put(ItemKey.of(stack).toImmutable(), content);
+        }
+        return content.fluid;
+    }
+
+    private static final class Content {
+        @Nullable
+        private final FluidStack fluid;
+
+        private Content(@Nullable FluidStack fluid) {
+            this.fluid = fluid;
+        }
+    }
+}
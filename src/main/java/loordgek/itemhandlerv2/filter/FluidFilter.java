@@ -2,7 +2,6 @@ package loordgek.itemhandlerv2.filter;
 
 import net.minecraft.item.ItemStack;
 import net.minecraftforge.fluids.FluidStack;
-import net.minecraftforge.fluids.FluidUtil;
 
 public class FluidFilter implements IStackFilter {
     private final FluidStack fluidStackToTest;
@@ -15,7 +14,7 @@ public class FluidFilter implements IStackFilter {
 
     @Override
     public boolean test(ItemStack stack) {
-        FluidStack fluidStack = FluidUtil.getFluidContained(stack);
+        FluidStack fluidStack = FluidContentCache.getFluidContained(stack);
         if (fluidStack != null) {
             switch (this.matchingStrategy) {
                 case EXCEEDED:
@@ -31,6 +30,11 @@ public class FluidFilter implements IStackFilter {
         return false;
     }
 
+    @Override
+    public int getCost() {
+        return COST_CAPABILITY;
+    }
+
     public enum MatchingStrategy {
         /**
          * EXACT matching indicates that it will try matching exact amount of fluid.
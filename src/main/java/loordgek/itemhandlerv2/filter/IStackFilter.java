@@ -1,18 +1,66 @@
 package loordgek.itemhandlerv2.filter;
 
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.NonNullList;
 
+import javax.annotation.Nullable;
+import java.util.Set;
 import java.util.function.Predicate;
 
 @FunctionalInterface
 public interface IStackFilter extends Predicate<ItemStack> {
     NonNullList<ItemStack> emptyNNList = NonNullList.withSize(0, ItemStack.EMPTY);
 
+    /**
+     * Rough costs of one test, used to run the cheap filters of a combination first.
+     */
+    int COST_ITEM = 1;
+    int COST_LOOKUP = 5;
+    int COST_NBT = 20;
+    int COST_UNKNOWN = 50;
+    int COST_CAPABILITY = 100;
+
     @Override
     boolean test(ItemStack stack);
 
     default NonNullList<ItemStack> getExamples() {
         return emptyNNList;
     }
+
+    /**
+     * Gets the rough cost of one test, see the COST constants.
+     */
+    default int getCost() {
+        return COST_UNKNOWN;
+    }
+
+    /**
+     * Gets the items a matching stack can have, handlers with an item index only test the stacks of these items.
+     *
+     * @return the candidate items, or null if any item can match
+     */
+    @Nullable
+    default Set<Item> getCandidateItems() {
+        return null;
+    }
+
+    @Override
+    default IStackFilter and(Predicate<? super ItemStack> other) {
+        return new AndFilter(this, of(other));
+    }
+
+    @Override
+    default IStackFilter or(Predicate<? super ItemStack> other) {
+        return new OrFilter(this, of(other));
+    }
+
+    @Override
+    default IStackFilter negate() {
+        return new NotFilter(this);
+    }
+
+    static IStackFilter of(Predicate<? super ItemStack> predicate) {
+        return predicate instanceof IStackFilter ? (IStackFilter) predicate : predicate::test;
+    }
 }
@@ -0,0 +1,54 @@
+package loordgek.itemhandlerv2.filter;
+
+import loordgek.itemhandlerv2.itemhandler.ItemKey;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.NonNullList;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Matches stacks of an item, or when made from a stack, stacks with the same item, metadata and NBT.
+ */
+public class ItemFilter implements IStackFilter {
+    private final Item item;
+    @Nullable
+    private final ItemKey key;
+    private final Set<Item> candidateItems;
+
+    public ItemFilter(Item item) {
+        this.item = item;
+        this.key = null;
+        this.candidateItems = Collections.singleton(item);
+    }
+
+    public ItemFilter(ItemStack stack) {
+        this.item = stack.getItem();
+        this.key = ItemKey.of(stack).toImmutable();
+        this.candidateItems = Collections.singleton(item);
+    }
+
+    @Override
+    public boolean test(ItemStack stack) {
+        if (key != null)
+            return key.matches(stack);
+        return !stack.isEmpty() && stack.getItem() == item;
+    }
+
+    @Override
+    public NonNullList<ItemStack> getExamples() {
+        return NonNullList.withSize(1, key != null ? key.toStack(1) : new ItemStack(item));
+    }
+
+    @Override
+    public int getCost() {
+        return key != null ? COST_NBT : COST_ITEM;
+    }
+
+    @Override
+    public Set<Item> getCandidateItems() {
+        return candidateItems;
+    }
+}
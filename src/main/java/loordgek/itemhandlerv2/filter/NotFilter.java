@@ -0,0 +1,29 @@
+package loordgek.itemhandlerv2.filter;
+
+import net.minecraft.item.ItemStack;
+
+/**
+ * Matches the stacks that are not matched by its filter.
+ */
+public class NotFilter implements IStackFilter {
+    private final IStackFilter filter;
+
+    public NotFilter(IStackFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean test(ItemStack stack) {
+        return !filter.test(stack);
+    }
+
+    @Override
+    public int getCost() {
+        return filter.getCost();
+    }
+
+    @Override
+    public IStackFilter negate() {
+        return filter;
+    }
+}
@@ -0,0 +1,69 @@
+package loordgek.itemhandlerv2.filter;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.NonNullList;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Matches the stacks matched by any of its filters, the cheapest filters are tested first.
+ */
+public class OrFilter implements IStackFilter {
+    private final IStackFilter[] filters;
+    private final int cost;
+    private final CandidateCache candidateItems;
+
+    public OrFilter(IStackFilter... filters) {
+        List<IStackFilter> flattened = new ArrayList<>();
+        for (IStackFilter filter : filters) {
+            if (filter instanceof OrFilter) {
+                for (IStackFilter child : ((OrFilter) filter).filters) {
+                    flattened.add(child);
+                }
+            } else flattened.add(filter);
+        }
+        flattened.sort(Comparator.comparingInt(IStackFilter::getCost));
+        this.filters = flattened.toArray(new IStackFilter[0]);
+
+        int cost = 0;
+        for (IStackFilter filter : this.filters) {
+            cost += filter.getCost();
+        }
+        this.cost = cost;
+        this.candidateItems = new CandidateCache(this.filters, false);
+    }
+
+    @Override
+    public boolean test(ItemStack stack) {
+        for (IStackFilter filter : filters) {
+            if (filter.test(stack))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public NonNullList<ItemStack> getExamples() {
+        NonNullList<ItemStack> examples = NonNullList.create();
+        for (IStackFilter filter : filters) {
+            examples.addAll(filter.getExamples());
+        }
+        return examples;
+    }
+
+    @Override
+    public int getCost() {
+        return cost;
+    }
+
+    @Nullable
+    @Override
+    public Set<Item> getCandidateItems() {
+        return candidateItems.get();
+    }
+}
@@ -1,24 +1,128 @@
 package loordgek.itemhandlerv2.filter;
 
+import it.unimi.dsi.fastutil.ints.Int2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.NonNullList;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.event.FMLModIdMappingEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.oredict.OreDictionary;
 import org.apache.commons.lang3.ArrayUtils;
 
+import javax.annotation.Nullable;
+import java.util.Set;
+
+/**
+ * Matches the stacks registered under an ore name.
+ * <p/>
+ * The ore ids of a stack only depend on its item and metadata, so the result is remembered per item and metadata
+ * until the ore dictionary registers a new entry or the ids are remapped. Every thread has its own cache, filters
+ * can be tested from several threads without locking. A new set of candidate items is made when the ore dictionary
+ * changed, the old one is not modified.
+ */
 public class OreDictFilter implements IStackFilter {
+    private static final byte UNKNOWN = -1;
+    private static volatile int oreDictGeneration;
+
+    static {
+        MinecraftForge.EVENT_BUS.register(OreDictFilter.class);
+    }
+
     private final String oreName;
+    private final int oreId;
+    private final ThreadLocal<MatchCache> matches = ThreadLocal.withInitial(MatchCache::new);
+    @Nullable
+    private volatile CandidateItems candidateItems;
 
     public OreDictFilter(String oreName) {
         this.oreName = oreName;
+        this.oreId = OreDictionary.getOreID(oreName);
     }
 
     @Override
     public boolean test(ItemStack stack) {
-        return !stack.isEmpty() && ArrayUtils.contains(OreDictionary.getOreIDs(stack), OreDictionary.getOreID(oreName));
+        if (stack.isEmpty())
+            return false;
+        Int2ByteOpenHashMap damages = matches.get().get(stack.getItem());
+        byte match = damages.get(stack.getItemDamage());
+        if (match == UNKNOWN) {
+            match = (byte) (ArrayUtils.contains(OreDictionary.getOreIDs(stack), oreId) ? 1 : 0);
+            damages.put(stack.getItemDamage(), match);
+        }
+        return match == 1;
     }
 
     @Override
     public NonNullList<ItemStack> getExamples() {
         return OreDictionary.getOres(oreName);
     }
+
+    @Override
+    public int getCost() {
+        return COST_LOOKUP;
+    }
+
+    @Override
+    public Set<Item> getCandidateItems() {
+        int generation = oreDictGeneration;
+        CandidateItems candidates = candidateItems;
+        if (candidates == null || candidates.generation != generation) {
+            // two threads may both make the set, they make the same one
+            Set<Item> items = new ReferenceOpenHashSet<>();
+            for (ItemStack ore : getExamples()) {
+                items.add(ore.getItem());
+            }
+            candidates = new CandidateItems(generation, items);
+            candidateItems = candidates;
+        }
+        return candidates.items;
+    }
+
+    @SubscribeEvent
+    public static void onOreRegister(OreDictionary.OreRegisterEvent event) {
+        oreDictGeneration++;
+    }
+
+    /**
+     * Forgets every remembered match, the ore ids of the stacks are baked again after the ids are remapped.
+     * The event is only sent to mod classes, the mod has to call this from its {@code @Mod.EventHandler}.
+     */
+    public static void onIdMapping(FMLModIdMappingEvent event) {
+        oreDictGeneration++;
+    }
+
+    /**
+     * The matches of one thread keyed by item and metadata, cleared when the ore dictionary changed.
+     */
+    private static class MatchCache {
+        private final Reference2ObjectOpenHashMap<Item, Int2ByteOpenHashMap> items = new Reference2ObjectOpenHashMap<>();
+        private int generation = oreDictGeneration;
+
+        Int2ByteOpenHashMap get(Item item) {
+            if (generation != oreDictGeneration) {
+                items.clear();
+                generation = oreDictGeneration;
+            }
+            Int2ByteOpenHashMap damages = items.get(item);
+            if (damages == null) {
+                damages = new Int2ByteOpenHashMap();
+                damages.defaultReturnValue(UNKNOWN);
+                items.put(item, damages);
+            }
+            return damages;
+        }
+    }
+
+    private static class CandidateItems {
+        private final int generation;
+        private final Set<Item> items;
+
+        private CandidateItems(int generation, Set<Item> items) {
+            this.generation = generation;
+            this.items = items;
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.items.ItemHandlerHelper;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The result bookkeeping shared by the transactions of the handlers in this package.
+ */
+abstract class AbstractTransaction implements ITransaction {
+    ItemStack result = ItemStack.EMPTY;
+    private ItemStack resultCopy = ItemStack.EMPTY;
+    int resultAmount;
+
+    AbstractTransaction() {
+    }
+
+    AbstractTransaction(ItemStack result, int resultAmount) {
+        this.result = result;
+        this.resultAmount = resultAmount;
+    }
+
+    void growResult(int resultAmount) {
+        this.resultAmount += resultAmount;
+    }
+
+    /**
+     * Replaces the result, for a transaction that applied less than it planned.
+     */
+    void setResult(ItemStack result, int resultAmount) {
+        this.result = result;
+        this.resultAmount = resultAmount;
+        this.resultCopy = ItemStack.EMPTY;
+    }
+
+    @Override
+    @Nonnull
+    public ItemStack getResult() {
+        if (result.isEmpty())
+            return result;
+        if (resultCopy.isEmpty())
+            resultCopy = ItemHandlerHelper.copyStackWithSize(result, resultAmount);
+        return resultCopy;
+    }
+
+    @Override
+    @Nonnull
+    public ItemStack getResultUnsafe() {
+        return result;
+    }
+
+    @Override
+    public int getResultAmount() {
+        return resultAmount;
+    }
+
+    @Nonnull
+    @Override
+    public TransactionType getType() {
+        return TransactionType.SUCCESS;
+    }
+}
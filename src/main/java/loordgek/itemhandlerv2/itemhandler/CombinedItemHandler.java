@@ -0,0 +1,503 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.filter.ItemFilter;
+import loordgek.itemhandlerv2.observer.BackpressurePolicy;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserver;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserverble;
+import loordgek.itemhandlerv2.observer.ObserverList;
+import loordgek.itemhandlerv2.util.SlotBitSet;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Several handlers seen as one, the slots of the members follow each other in order.
+ * <p/>
+ * A global slot is mapped to its member by a binary search over the first slot of every member. Members that
+ * are {@link IItemHandlerObserverble} are watched to keep a summary of the items they hold and whether they have
+ * room, {@link #insert(ItemStack)} and {@link #extract(IStackFilter, int)} skip the members whose summary says
+ * they can not take part. Other members are always asked, as are the members that coalesce or notify
+ * asynchronously, their summary can miss changes.
+ * <p/>
+ * The sizes of the members must not change. Call {@link #detach()} when this handler is no longer used,
+ * so the members drop the observers of it.
+ */
+public class CombinedItemHandler implements IItemHandler, IItemHandlerObserverble {
+    private final ObserverList observers = new ObserverList(this);
+    private final IItemHandler[] members;
+    /**
+     * The first global slot of every member, the last entry is the size.
+     */
+    private final int[] offsets;
+    private final Summary[] summaries;
+
+    public CombinedItemHandler(IItemHandler... members) {
+        this.members = members.clone();
+        this.offsets = new int[members.length + 1];
+        this.summaries = new Summary[members.length];
+        for (int i = 0; i < members.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (members[j] == members[i])
+                    throw new IllegalArgumentException("a handler can only be a member once, it plans one transaction at a time");
+            }
+            offsets[i + 1] = offsets[i] + members[i].size();
+            if (members[i] instanceof IItemHandlerObserverble) {
+                summaries[i] = new Summary(i);
+                ((IItemHandlerObserverble) members[i]).addObserver(summaries[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes the observers this handler added to its members.
+     */
+    public void detach() {
+        for (int i = 0; i < members.length; i++) {
+            if (summaries[i] != null)
+                ((IItemHandlerObserverble) members[i]).removeObserver(summaries[i]);
+        }
+    }
+
+    /**
+     * Gets the index of the member holding the global slot.
+     */
+    public int getMemberIndex(int slot) {
+        if (slot < 0 || slot >= size())
+            throw new IndexOutOfBoundsException("slot " + slot + " is not in 0 - " + size());
+        int index = Arrays.binarySearch(offsets, slot);
+        // a slot that is not the first of a member lands between two offsets, empty members share an offset
+        if (index < 0)
+            return -index - 2;
+        while (offsets[index + 1] == slot) {
+            index++;
+        }
+        return index;
+    }
+
+    public IItemHandler getMember(int index) {
+        return members[index];
+    }
+
+    public int getMemberCount() {
+        return members.length;
+    }
+
+    @Override
+    public int size() {
+        return offsets[members.length];
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackInSlot(int slot) {
+        int member = getMemberIndex(slot);
+        return members[member].getStackInSlot(slot - offsets[member]);
+    }
+
+    @Override
+    public int getSlotLimit(int slot) {
+        int member = getMemberIndex(slot);
+        return members[member].getSlotLimit(slot - offsets[member]);
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackForModification(int slot) {
+        int member = getMemberIndex(slot);
+        return members[member].getStackForModification(slot - offsets[member]);
+    }
+
+    @Override
+    public void onStackChanged(int slot) {
+        int member = getMemberIndex(slot);
+        members[member].onStackChanged(slot - offsets[member]);
+    }
+
+    @Override
+    public void forEachNonEmpty(ISlotConsumer consumer) {
+        for (int i = 0; i < members.length; i++) {
+            int offset = offsets[i];
+            members[i].forEachNonEmpty((slot, stack) -> consumer.accept(offset + slot, stack));
+        }
+    }
+
+    @Override
+    public long countOf(ItemStack stack) {
+        if (stack.isEmpty())
+            return 0;
+        long count = 0;
+        for (int i = 0; i < members.length; i++) {
+            Summary summary = getSummary(i);
+            if (summary == null || summary.items.containsKey(stack.getItem()))
+                count += members[i].countOf(stack);
+        }
+        return count;
+    }
+
+    @Override
+    public long countOf(IStackFilter filter) {
+        Set<Item> candidates = filter.getCandidateItems();
+        long count = 0;
+        for (int i = 0; i < members.length; i++) {
+            Summary summary = getSummary(i);
+            if (summary == null || summary.mayMatch(candidates))
+                count += members[i].countOf(filter);
+        }
+        return count;
+    }
+
+    @Override
+    public ITransaction setStack(int slot, ItemStack stack) {
+        int member = getMemberIndex(slot);
+        return members[member].setStack(slot - offsets[member], stack);
+    }
+
+    @Override
+    public ITransaction insert(int slot, ItemStack stack) {
+        int member = getMemberIndex(slot);
+        return members[member].insert(slot - offsets[member], stack);
+    }
+
+    @Override
+    public ITransaction insert(ItemStack stack) {
+        return insert(stack, stack.getCount());
+    }
+
+    @Override
+    public ITransaction insert(ItemStack stack, int amount) {
+        if (stack.isEmpty() || amount <= 0)
+            return ITransaction.INVALID;
+        Transaction transaction = null;
+        int remainder = amount;
+        for (int i = 0; i < members.length && remainder > 0; i++) {
+            Summary summary = getSummary(i);
+            if (summary != null && !summary.mayInsert(stack.getItem()))
+                continue;
+            // the leftover goes on without a copy of the stack
+            ITransaction memberTransaction = members[i].insert(stack, remainder);
+            if (!memberTransaction.getType().isSuccess())
+                continue;
+            if (transaction == null)
+                transaction = new Transaction(stack, true);
+            transaction.add(members[i], memberTransaction, remainder - memberTransaction.getResultAmount());
+            remainder = memberTransaction.getResultAmount();
+        }
+        if (transaction == null)
+            return ITransaction.FAILURE;
+        if (remainder == 0)
+            transaction.result = ItemStack.EMPTY;
+        transaction.growResult(remainder);
+        return transaction;
+    }
+
+    @Override
+    public ITransaction extract(int slot, int amount) {
+        int member = getMemberIndex(slot);
+        return members[member].extract(slot - offsets[member], amount);
+    }
+
+    @Override
+    public ITransaction extract(IStackFilter filter, int amount) {
+        if (amount == 0)
+            return ITransaction.UNDEFINED;
+        Set<Item> candidates = filter.getCandidateItems();
+        Transaction transaction = null;
+        int amountLeft = amount;
+        for (int i = 0; i < members.length && amountLeft > 0; i++) {
+            Summary summary = getSummary(i);
+            if (summary != null && !summary.mayMatch(candidates))
+                continue;
+            ITransaction memberTransaction = members[i].extract(filter, amountLeft);
+            if (!memberTransaction.getType().isSuccess())
+                continue;
+            if (transaction == null) {
+                transaction = new Transaction(memberTransaction.getResultUnsafe(), false);
+                // the next members may only give the same item
+                filter = new ItemFilter(memberTransaction.getResultUnsafe());
+                candidates = filter.getCandidateItems();
+            }
+            transaction.add(members[i], memberTransaction, memberTransaction.getResultAmount());
+            transaction.growResult(memberTransaction.getResultAmount());
+            amountLeft -= memberTransaction.getResultAmount();
+        }
+        return transaction == null ? ITransaction.FAILURE : transaction;
+    }
+
+    @Override
+    public void addObserver(IItemHandlerObserver observer) {
+        observers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(IItemHandlerObserver observer) {
+        observers.remove(observer);
+    }
+
+    @Override
+    public void setCoalescing(boolean coalescing) {
+        observers.setCoalescing(coalescing);
+    }
+
+    @Override
+    public void flushObservers() {
+        observers.flush();
+    }
+
+    @Override
+    public void setAsyncDispatch(@Nullable Executor executor, int capacity, BackpressurePolicy policy) {
+        observers.setAsync(executor, capacity, policy);
+    }
+
+    /**
+     * Also checks the watched members, the changes of this handler are the changes they report.
+     */
+    @Override
+    public boolean isNotifyingDirectly() {
+        if (observers.isCoalescing() || observers.isAsync())
+            return false;
+        for (int i = 0; i < members.length; i++) {
+            if (summaries[i] != null && !((IItemHandlerObserverble) members[i]).isNotifyingDirectly())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the up to date summary of the member, or null when the member has to be asked. The summary of a member
+     * that does not notify directly is dropped and built again once it does.
+     */
+    @Nullable
+    private Summary getSummary(int member) {
+        Summary summary = summaries[member];
+        if (summary == null)
+            return null;
+        if (!((IItemHandlerObserverble) members[member]).isNotifyingDirectly()) {
+            summary.built = false;
+            return null;
+        }
+        return summary.get();
+    }
+
+    /**
+     * What one member holds, built from the member the first time it is needed and kept up to date from the slots
+     * the member reports as changed. It also passes the changes of the member on to the observers of this handler.
+     * <p/>
+     * It is only used while the member notifies directly on the thread that uses this handler.
+     */
+    private class Summary implements IItemHandlerObserver {
+        private final int member;
+        /**
+         * The item in every slot of the member as last seen, null for an empty slot.
+         */
+        private final Item[] slotItems;
+        /**
+         * The amount of slots holding every item.
+         */
+        private final Reference2IntOpenHashMap<Item> items = new Reference2IntOpenHashMap<>();
+        private final SlotBitSet slotsWithRoom;
+        private int emptySlots;
+        private boolean built;
+
+        private Summary(int member) {
+            this.member = member;
+            this.slotItems = new Item[members[member].size()];
+            this.slotsWithRoom = new SlotBitSet(slotItems.length);
+        }
+
+        private Summary get() {
+            if (!built) {
+                emptySlots = slotItems.length;
+                for (int slot = 0; slot < slotItems.length; slot++) {
+                    slotsWithRoom.add(slot);
+                    update(slot);
+                }
+                built = true;
+            }
+            return this;
+        }
+
+        private void update(int slot) {
+            IItemHandler handler = members[member];
+            Item oldItem = slotItems[slot];
+            if (oldItem == null)
+                emptySlots--;
+            else if (items.addTo(oldItem, -1) == 1)
+                items.removeInt(oldItem);
+            ItemStack stack = handler.getStackInSlot(slot);
+            if (stack.isEmpty()) {
+                slotItems[slot] = null;
+                emptySlots++;
+                slotsWithRoom.add(slot);
+            } else {
+                slotItems[slot] = stack.getItem();
+                items.addTo(stack.getItem(), 1);
+                if (stack.getCount() < Math.min(handler.getSlotLimit(slot), stack.getMaxStackSize()))
+                    slotsWithRoom.add(slot);
+                else slotsWithRoom.remove(slot);
+            }
+        }
+
+        private boolean mayInsert(Item item) {
+            return !slotsWithRoom.isEmpty() && (emptySlots > 0 || items.containsKey(item));
+        }
+
+        private boolean mayMatch(@Nullable Set<Item> candidates) {
+            if (items.isEmpty())
+                return false;
+            if (candidates == null)
+                return true;
+            for (Item item : candidates) {
+                if (items.containsKey(item))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onInventoryChanged(IItemHandler handler, IntSet slots) {
+            int offset = offsets[member];
+            for (IntIterator iterator = slots.iterator(); iterator.hasNext(); ) {
+                int slot = iterator.nextInt();
+                if (slot >= slotItems.length)
+                    continue;
+                if (built)
+                    update(slot);
+                if (!observers.isEmpty())
+                    observers.markChanged(offset + slot);
+            }
+            observers.changed();
+        }
+    }
+
+    /**
+     * The transactions of the members that take part, confirmed together.
+     * <p/>
+     * Every member transaction is checked before any is confirmed. The members that are
+     * {@link IJournaledItemHandler}s confirm in a {@link TransactionGroup}, so if a member transaction is no longer
+     * valid when its turn comes, for example because an observer of an earlier member planned on its handler, they
+     * are rolled back and this transaction reports {@link TransactionType#CANCELLED}. Earlier members that can not
+     * be rolled back keep their changes, the result then reports what was really moved.
+     */
+    private static class Transaction extends AbstractTransaction {
+        private final List<IItemHandler> handlers = new ArrayList<>(2);
+        private final List<ITransaction> transactions = new ArrayList<>(2);
+        /**
+         * The amount every member moves.
+         */
+        private final IntList amounts = new IntArrayList(2);
+        private final ItemStack prototype;
+        private final boolean insert;
+        private TransactionType type = TransactionType.SUCCESS;
+        private boolean done;
+        private boolean confirmed;
+
+        private Transaction(ItemStack prototype, boolean insert) {
+            super(prototype, 0);
+            this.prototype = prototype;
+            this.insert = insert;
+        }
+
+        private void add(IItemHandler handler, ITransaction transaction, int amount) {
+            handlers.add(handler);
+            transactions.add(transaction);
+            amounts.add(amount);
+        }
+
+        @Override
+        @Nonnull
+        public ITransaction cancel() {
+            if (!done) {
+                done = true;
+                for (ITransaction transaction : transactions) {
+                    transaction.cancel();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        @Nonnull
+        public ITransaction confirm() {
+            if (confirmed)
+                return this;
+            if (!isValid()) {
+                type = TransactionType.CANCELLED;
+                cancel();
+                return this;
+            }
+            confirmed = true;
+            done = true;
+            List<IItemHandler> journaled = new ArrayList<>(handlers.size());
+            for (IItemHandler handler : handlers) {
+                // a member already in a group is rolled back by that group
+                if (handler instanceof IJournaledItemHandler && !((IJournaledItemHandler) handler).isJournaling())
+                    journaled.add(handler);
+            }
+            TransactionGroup group = journaled.isEmpty() ? null : new TransactionGroup(journaled.toArray(new IItemHandler[0]));
+            try {
+                int applied = 0;
+                while (applied < transactions.size()) {
+                    ITransaction transaction = transactions.get(applied);
+                    if (!transaction.isValid() || transaction.confirm().getType() != TransactionType.SUCCESS)
+                        break;
+                    applied++;
+                }
+                if (applied == transactions.size()) {
+                    if (group != null)
+                        group.commit();
+                    return this;
+                }
+                for (int i = applied; i < transactions.size(); i++) {
+                    transactions.get(i).cancel();
+                }
+                int kept = 0;
+                int planned = 0;
+                for (int i = 0; i < transactions.size(); i++) {
+                    planned += amounts.getInt(i);
+                    if (i < applied && !journaled.contains(handlers.get(i)))
+                        kept += amounts.getInt(i);
+                }
+                if (kept == 0)
+                    type = TransactionType.CANCELLED;
+                else if (insert)
+                    setResult(prototype, resultAmount + planned - kept);
+                else setResult(prototype, kept);
+                return this;
+            } finally {
+                // rolls the journaled members back unless committed
+                if (group != null)
+                    group.close();
+            }
+        }
+
+        @Override
+        public boolean isValid() {
+            if (done)
+                return false;
+            for (ITransaction transaction : transactions) {
+                if (!transaction.isValid())
+                    return false;
+            }
+            return true;
+        }
+
+        @Nonnull
+        @Override
+        public TransactionType getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.observer.BackpressurePolicy;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserver;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserverble;
+import loordgek.itemhandlerv2.observer.ObserverList;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.items.ItemHandlerHelper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A handler that can be used from several threads at once.
+ * <p/>
+ * Every slot holds an immutable stack with a version that is bumped on every write. Transactions are planned
+ * without locking and remember the version of every slot they read, also the slots they passed over,
+ * {@link ITransaction#confirm()} locks the stripes of those slots and cancels the transaction with
+ * {@link TransactionType#CANCELLED} if any of them changed in the meantime. Unlike {@link ItemHandler}, planning a transaction does not invalidate the others.
+ * <p/>
+ * The stacks returned by {@link #getStackInSlot(int)} are shared and must not be modified,
+ * {@link #getStackForModification(int)} hands out a copy that is written back by {@link #onStackChanged(int)}.
+ * Observers are notified on the thread that confirmed the change.
+ */
+public class ConcurrentItemHandler implements IItemHandler, IItemHandlerObserverble {
+    private static final int STRIPES = 64;
+    private final ObserverList observers = new ObserverList(this);
+    private final AtomicReferenceArray<SlotState> slots;
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    /**
+     * The copies handed out for modification with the state they were copied from.
+     */
+    private final AtomicReferenceArray<Modification> modifiable;
+
+    public ConcurrentItemHandler(int size) {
+        this.slots = new AtomicReferenceArray<>(size);
+        this.modifiable = new AtomicReferenceArray<>(size);
+        SlotState empty = new SlotState(ItemStack.EMPTY, 0);
+        for (int i = 0; i < size; i++) {
+            slots.set(i, empty);
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return slots.length();
+    }
+
+    protected int getStackLimit(int slot, ItemStack stack) {
+        return Math.min(getSlotLimit(slot), stack.getMaxStackSize());
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackInSlot(int slot) {
+        return slots.get(slot).stack;
+    }
+
+    @Override
+    public int getSlotLimit(int slot) {
+        return 64;
+    }
+
+    /**
+     * Gets a copy of the stack in the slot, the same copy until it is written back or the slot changes.
+     */
+    @Nonnull
+    @Override
+    public ItemStack getStackForModification(int slot) {
+        SlotState state = slots.get(slot);
+        Modification modification = modifiable.get(slot);
+        if (modification == null || modification.base != state) {
+            modification = new Modification(state);
+            modifiable.set(slot, modification);
+        }
+        return modification.copy;
+    }
+
+    /**
+     * Writes the copy of the slot back and bumps the version, the transactions planned against the slot are
+     * no longer valid. When another thread wrote the slot after the copy was made, only the change in count is
+     * applied to a stack of the same item, a different stack is replaced.
+     */
+    @Override
+    public void onStackChanged(int slot) {
+        Modification modification = modifiable.getAndSet(slot, null);
+        if (modification == null)
+            return;
+        ReentrantLock lock = locks[slot % STRIPES];
+        lock.lock();
+        try {
+            SlotState state = slots.get(slot);
+            // the copy may still be held by the caller, the slot gets its own
+            ItemStack stack = modification.copy.copy();
+            if (state != modification.base && !stack.isEmpty() && ItemHandlerHelper.canItemStacksStack(state.stack, stack))
+                stack.setCount(Math.max(0, state.stack.getCount() + stack.getCount() - modification.base.stack.getCount()));
+            slots.set(slot, new SlotState(stack.isEmpty() ? ItemStack.EMPTY : stack, state.version + 1));
+        } finally {
+            lock.unlock();
+        }
+        synchronized (observers) {
+            observers.markChanged(slot);
+            observers.changed();
+        }
+    }
+
+    /**
+     * Gets the version of the slot, it changes every time the slot is written.
+     */
+    public long getVersion(int slot) {
+        return slots.get(slot).version;
+    }
+
+    @Override
+    public ITransaction setStack(int slot, ItemStack stack) {
+        SlotState state = slots.get(slot);
+        if (stack.isEmpty() && state.stack.isEmpty())
+            return ITransaction.UNDEFINED;
+        int limit = Math.min(stack.getCount(), getStackLimit(slot, stack));
+
+        Transaction transaction = new Transaction(stack, stack.getCount() - limit);
+        transaction.write(slot, state, ItemHandlerHelper.copyStackWithSize(stack, limit));
+        return transaction;
+    }
+
+    @Override
+    public ITransaction insert(int slot, ItemStack stack) {
+        if (stack.isEmpty())
+            return ITransaction.UNDEFINED;
+        SlotState state = slots.get(slot);
+        if (!state.stack.isEmpty() && !ItemHandlerHelper.canItemStacksStack(state.stack, stack))
+            return ITransaction.INVALID;
+        int toInsert = Math.min(stack.getCount(), getRoom(slot, state.stack, stack));
+        if (toInsert <= 0)
+            return ITransaction.FAILURE;
+
+        Transaction transaction = new Transaction(stack, stack.getCount() - toInsert);
+        planInsert(transaction, slot, state, stack, toInsert);
+        return transaction;
+    }
+
+    @Override
+    public ITransaction insert(ItemStack stack) {
+        if (stack.isEmpty())
+            return ITransaction.INVALID;
+
+        Transaction transaction = new Transaction(stack, 0);
+        int remainder = stack.getCount();
+        for (int slot = 0; slot < size() && remainder > 0; slot++) {
+            SlotState state = slots.get(slot);
+            int toInsert = Math.min(remainder, getRoom(slot, state.stack, stack));
+            if (toInsert > 0) {
+                planInsert(transaction, slot, state, stack, toInsert);
+                remainder -= toInsert;
+            } else transaction.read(slot, state);
+        }
+        if (remainder == stack.getCount())
+            return ITransaction.FAILURE;
+        if (remainder == 0)
+            transaction.result = ItemStack.EMPTY;
+        transaction.growResult(remainder);
+        return transaction;
+    }
+
+    private void planInsert(Transaction transaction, int slot, SlotState state, ItemStack stack, int toInsert) {
+        if (state.stack.isEmpty())
+            transaction.write(slot, state, ItemHandlerHelper.copyStackWithSize(stack, toInsert));
+        else transaction.write(slot, state, ItemHandlerHelper.copyStackWithSize(state.stack, state.stack.getCount() + toInsert));
+    }
+
+    private int getRoom(int slot, ItemStack stackInSlot, ItemStack stack) {
+        if (stackInSlot.isEmpty())
+            return getStackLimit(slot, stack);
+        if (ItemHandlerHelper.canItemStacksStack(stackInSlot, stack))
+            return Math.max(0, getStackLimit(slot, stack) - stackInSlot.getCount());
+        return 0;
+    }
+
+    @Override
+    public ITransaction extract(int slot, int amount) {
+        if (amount == 0)
+            return ITransaction.UNDEFINED;
+        SlotState state = slots.get(slot);
+        if (state.stack.isEmpty())
+            return ITransaction.FAILURE;
+
+        Transaction transaction = new Transaction(state.stack, 0);
+        planExtract(transaction, slot, state, amount);
+        return transaction;
+    }
+
+    @Override
+    public ITransaction extract(IStackFilter filter, int amount) {
+        if (amount == 0)
+            return ITransaction.UNDEFINED;
+        Transaction transaction = new Transaction(ItemStack.EMPTY, 0);
+        int amountLeft = amount;
+        for (int slot = 0; slot < size() && amountLeft > 0; slot++) {
+            SlotState state = slots.get(slot);
+            if (!state.stack.isEmpty() && filter.test(state.stack)) {
+                if (transaction.result.isEmpty()) {
+                    transaction.result = state.stack;
+                } else if (!ItemHandlerHelper.canItemStacksStack(transaction.result, state.stack)) {
+                    transaction.read(slot, state);
+                    continue;
+                }
+                amountLeft = planExtract(transaction, slot, state, amountLeft);
+            } else transaction.read(slot, state);
+        }
+        if (transaction.result.isEmpty())
+            return ITransaction.FAILURE;
+        return transaction;
+    }
+
+    private int planExtract(Transaction transaction, int slot, SlotState state, int amountLeft) {
+        int toExtract = Math.min(state.stack.getCount(), amountLeft);
+        transaction.growResult(toExtract);
+        transaction.write(slot, state, ItemHandlerHelper.copyStackWithSize(state.stack, state.stack.getCount() - toExtract));
+        return amountLeft - toExtract;
+    }
+
+    @Override
+    public int getInsertableAmount(int slot, ItemStack stack) {
+        if (stack.isEmpty())
+            return 0;
+        return Math.min(stack.getCount(), getRoom(slot, getStackInSlot(slot), stack));
+    }
+
+    @Override
+    public int getExtractableAmount(int slot, int amount) {
+        return amount <= 0 ? 0 : Math.min(getStackInSlot(slot).getCount(), amount);
+    }
+
+    @Override
+    public void addObserver(IItemHandlerObserver observer) {
+        synchronized (observers) {
+            observers.add(observer);
+        }
+    }
+
+    @Override
+    public void removeObserver(IItemHandlerObserver observer) {
+        synchronized (observers) {
+            observers.remove(observer);
+        }
+    }
+
+    @Override
+    public void setCoalescing(boolean coalescing) {
+        synchronized (observers) {
+            observers.setCoalescing(coalescing);
+        }
+    }
+
+    @Override
+    public void flushObservers() {
+        synchronized (observers) {
+            observers.flush();
+        }
+    }
+
+    @Override
+    public void setAsyncDispatch(@Nullable Executor executor, int capacity, BackpressurePolicy policy) {
+        synchronized (observers) {
+            observers.setAsync(executor, capacity, policy);
+        }
+    }
+
+    @Override
+    public boolean isNotifyingDirectly() {
+        synchronized (observers) {
+            return !observers.isCoalescing() && !observers.isAsync();
+        }
+    }
+
+    private static class SlotState {
+        private final ItemStack stack;
+        private final long version;
+
+        private SlotState(ItemStack stack, long version) {
+            this.stack = stack;
+            this.version = version;
+        }
+    }
+
+    private static class Modification {
+        private final SlotState base;
+        private final ItemStack copy;
+
+        private Modification(SlotState base) {
+            this.base = base;
+            this.copy = base.stack.copy();
+        }
+    }
+
+    /**
+     * Records the new stack of every slot it touches together with the version it was planned against,
+     * and the version of every slot it only read.
+     */
+    private class Transaction extends AbstractTransaction {
+        private int[] slotsToWrite = new int[2];
+        private long[] versions = new long[2];
+        private ItemStack[] newStacks = new ItemStack[2];
+        private int operations;
+        private int[] slotsRead = new int[2];
+        private long[] readVersions = new long[2];
+        private int reads;
+        private long stripes;
+        private TransactionType type = TransactionType.SUCCESS;
+        private boolean done;
+
+        private Transaction(ItemStack result, int resultAmount) {
+            super(result, resultAmount);
+        }
+
+        void write(int slot, SlotState state, ItemStack newStack) {
+            if (operations == slotsToWrite.length) {
+                slotsToWrite = Arrays.copyOf(slotsToWrite, operations * 2);
+                versions = Arrays.copyOf(versions, operations * 2);
+                newStacks = Arrays.copyOf(newStacks, operations * 2);
+            }
+            slotsToWrite[operations] = slot;
+            versions[operations] = state.version;
+            newStacks[operations] = newStack;
+            operations++;
+            stripes |= 1L << (slot % STRIPES);
+        }
+
+        /**
+         * Records a slot the plan depends on without writing it, like a slot that had no room.
+         */
+        void read(int slot, SlotState state) {
+            if (reads == slotsRead.length) {
+                slotsRead = Arrays.copyOf(slotsRead, reads * 2);
+                readVersions = Arrays.copyOf(readVersions, reads * 2);
+            }
+            slotsRead[reads] = slot;
+            readVersions[reads] = state.version;
+            reads++;
+            stripes |= 1L << (slot % STRIPES);
+        }
+
+        private boolean isCurrent() {
+            for (int i = 0; i < operations; i++) {
+                if (slots.get(slotsToWrite[i]).version != versions[i])
+                    return false;
+            }
+            for (int i = 0; i < reads; i++) {
+                if (slots.get(slotsRead[i]).version != readVersions[i])
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        @Nonnull
+        public ITransaction cancel() {
+            if (!done)
+                type = TransactionType.CANCELLED;
+            done = true;
+            return this;
+        }
+
+        @Override
+        @Nonnull
+        public ITransaction confirm() {
+            if (done)
+                return this;
+            done = true;
+            // lock the stripes in ascending order so two confirms can not deadlock
+            for (long bits = stripes; bits != 0; bits &= bits - 1) {
+                locks[Long.numberOfTrailingZeros(bits)].lock();
+            }
+            try {
+                if (!isCurrent()) {
+                    type = TransactionType.CANCELLED;
+                    return this;
+                }
+                for (int i = 0; i < operations; i++) {
+                    slots.set(slotsToWrite[i], new SlotState(newStacks[i], versions[i] + 1));
+                }
+            } finally {
+                for (long bits = stripes; bits != 0; bits &= bits - 1) {
+                    locks[Long.numberOfTrailingZeros(bits)].unlock();
+                }
+            }
+            synchronized (observers) {
+                if (!observers.isEmpty()) {
+                    for (int i = 0; i < operations; i++) {
+                        observers.markChanged(slotsToWrite[i]);
+                    }
+                }
+                observers.changed();
+            }
+            return this;
+        }
+
+        @Override
+        public boolean isValid() {
+            return !done && isCurrent();
+        }
+
+        @Nonnull
+        @Override
+        public TransactionType getType() {
+            return type;
+        }
+    }
+}
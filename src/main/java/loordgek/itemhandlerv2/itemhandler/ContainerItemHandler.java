@@ -0,0 +1,145 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserver;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserverble;
+import loordgek.itemhandlerv2.util.SlotBitSet;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.inventory.ClickType;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.Slot;
+import net.minecraft.item.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A container that only sends the slots its handlers report as changed.
+ * <p/>
+ * {@link SlotItemHandler}s backed by an {@link IItemHandlerObserverble} are watched by an observer, so
+ * {@link #detectAndSendChanges()} does not compare them at all until the handler reports a change. All other slots,
+ * like the player inventory, are still compared every tick like vanilla does. A click changes stacks in place
+ * without a transaction, so all watched slots are compared once after every {@link #slotClick}. Other containers
+ * showing the same handler see such a change when the handler notifies its observers from
+ * {@link IItemHandler#onStackChanged(int)}, which {@link SlotItemHandler} calls.
+ * <p/>
+ * The observers are notified on the server thread, so the handlers must not use an asynchronous dispatch.
+ * They are removed again in {@link #onContainerClosed(EntityPlayer)}.
+ */
+public abstract class ContainerItemHandler extends Container {
+    private final List<HandlerObserver> handlerObservers = new ArrayList<>();
+    private final SlotBitSet comparedSlots = new SlotBitSet();
+    private final SlotBitSet dirtySlots = new SlotBitSet();
+    private final SlotBitSet watchedSlots = new SlotBitSet();
+
+    @Override
+    protected Slot addSlotToContainer(Slot slot) {
+        Slot added = super.addSlotToContainer(slot);
+        if (slot instanceof SlotItemHandler && ((SlotItemHandler) slot).getItemHandler() instanceof IItemHandlerObserverble) {
+            getObserver(((SlotItemHandler) slot).getItemHandler()).watch(slot.getSlotIndex(), slot.slotNumber);
+            watchedSlots.add(slot.slotNumber);
+            // the first sync still has to compare it
+            dirtySlots.add(slot.slotNumber);
+        } else comparedSlots.add(slot.slotNumber);
+        return added;
+    }
+
+    private HandlerObserver getObserver(IItemHandler handler) {
+        for (HandlerObserver observer : handlerObservers) {
+            if (observer.handler == handler)
+                return observer;
+        }
+        HandlerObserver observer = new HandlerObserver(handler);
+        ((IItemHandlerObserverble) handler).addObserver(observer);
+        handlerObservers.add(observer);
+        return observer;
+    }
+
+    /**
+     * The vanilla click code changes the stacks of the slots in place without a transaction, so the watched slots
+     * are compared on the next sync after a click.
+     */
+    @Override
+    public ItemStack slotClick(int slotId, int dragType, ClickType clickType, EntityPlayer player) {
+        ItemStack result = super.slotClick(slotId, dragType, clickType, player);
+        dirtySlots.addAll(watchedSlots);
+        return result;
+    }
+
+    @Override
+    public void detectAndSendChanges() {
+        for (int slot = comparedSlots.nextSetBit(0); slot != -1; slot = comparedSlots.nextSetBit(slot + 1)) {
+            sendIfChanged(slot);
+        }
+        if (dirtySlots.isEmpty())
+            return;
+        for (int slot = dirtySlots.nextSetBit(0); slot != -1; slot = dirtySlots.nextSetBit(slot + 1)) {
+            sendIfChanged(slot);
+        }
+        dirtySlots.clear();
+    }
+
+    /**
+     * The vanilla compare and send of one slot.
+     */
+    private void sendIfChanged(int slot) {
+        ItemStack stack = inventorySlots.get(slot).getStack();
+        ItemStack sentStack = inventoryItemStacks.get(slot);
+        if (!ItemStack.areItemStacksEqual(sentStack, stack)) {
+            boolean clientStackChanged = !ItemStack.areItemStacksEqualUsingNBTShareTag(sentStack, stack);
+            sentStack = stack.isEmpty() ? ItemStack.EMPTY : stack.copy();
+            inventoryItemStacks.set(slot, sentStack);
+            if (clientStackChanged) {
+                for (int i = 0; i < listeners.size(); i++) {
+                    listeners.get(i).sendSlotContents(this, slot, sentStack);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onContainerClosed(EntityPlayer player) {
+        super.onContainerClosed(player);
+        for (HandlerObserver observer : handlerObservers) {
+            ((IItemHandlerObserverble) observer.handler).removeObserver(observer);
+        }
+        handlerObservers.clear();
+    }
+
+    /**
+     * Maps the changed slots of one handler to the container slots showing them.
+     */
+    private class HandlerObserver implements IItemHandlerObserver {
+        private final IItemHandler handler;
+        private int[] containerSlots;
+
+        private HandlerObserver(IItemHandler handler) {
+            this.handler = handler;
+            this.containerSlots = new int[handler.size()];
+            Arrays.fill(containerSlots, -1);
+        }
+
+        private void watch(int handlerSlot, int containerSlot) {
+            if (handlerSlot >= containerSlots.length) {
+                int length = containerSlots.length;
+                containerSlots = Arrays.copyOf(containerSlots, handlerSlot + 1);
+                Arrays.fill(containerSlots, length, containerSlots.length, -1);
+            }
+            if (containerSlots[handlerSlot] == -1)
+                containerSlots[handlerSlot] = containerSlot;
+            // a handler slot shown twice keeps the second one compared every tick
+            else comparedSlots.add(containerSlot);
+        }
+
+        @Override
+        public void onInventoryChanged(IItemHandler handler, IntSet slots) {
+            for (IntIterator iterator = slots.iterator(); iterator.hasNext(); ) {
+                int slot = iterator.nextInt();
+                if (slot < containerSlots.length && containerSlots[slot] != -1)
+                    dirtySlots.add(containerSlots[slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the total count of every item identity in an inventory, updated from the slots that are written
+ * so that counting does not depend on the size of the inventory.
+ * <p/>
+ * It also caches the interned key of every slot, two slots hold the same identity only if their keys are the same instance.
+ */
+class ContentTable {
+    private final Map<ItemKey, Entry> entries = new Object2ObjectOpenHashMap<>();
+    private final ItemKey[] keys;
+    /**
+     * The count of every slot as it was last counted, so a stack grown in place is counted right on its next update.
+     */
+    private final int[] counts;
+
+    ContentTable(int size) {
+        this.keys = new ItemKey[size];
+        this.counts = new int[size];
+    }
+
+    /**
+     * Updates the slot after it has been written.
+     */
+    void update(int slot, @Nonnull ItemStack stack) {
+        ItemKey oldKey = keys[slot];
+        int oldCount = counts[slot];
+        counts[slot] = stack.getCount();
+        if (oldKey != null && oldKey.matches(stack)) {
+            if (stack.getCount() != oldCount)
+                entries.get(oldKey).count += stack.getCount() - oldCount;
+            return;
+        }
+        if (oldKey != null) {
+            Entry entry = entries.get(oldKey);
+            entry.count -= oldCount;
+            if (entry.count <= 0)
+                entries.remove(oldKey);
+        }
+        if (stack.isEmpty()) {
+            keys[slot] = null;
+            counts[slot] = 0;
+            return;
+        }
+        // the lookup key shares the NBT of the stack, it is only copied for a new identity
+        Entry entry = entries.get(ItemKey.of(stack));
+        if (entry == null) {
+            entry = new Entry(ItemKey.of(stack).intern());
+            entries.put(entry.key, entry);
+        }
+        entry.count += stack.getCount();
+        keys[slot] = entry.key;
+    }
+
+    /**
+     * Gets the identity of the stack in the slot, the same instance is returned as long as the identity does not change.
+     */
+    @Nullable
+    ItemKey getKey(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Gets the interned key of the identity of the stack if a slot holds it, the deep compare happens once here
+     * so the caller can compare slots by reference.
+     */
+    @Nullable
+    ItemKey find(@Nonnull ItemStack stack) {
+        if (stack.isEmpty())
+            return null;
+        Entry entry = entries.get(ItemKey.of(stack));
+        return entry == null ? null : entry.key;
+    }
+
+    long countOf(ItemKey key) {
+        Entry entry = entries.get(key);
+        return entry == null ? 0 : entry.count;
+    }
+
+    long countOf(IStackFilter filter) {
+        Set<Item> candidates = filter.getCandidateItems();
+        long count = 0;
+        for (Entry entry : entries.values()) {
+            if ((candidates == null || candidates.contains(entry.key.getItem())) && filter.test(entry.sample))
+                count += entry.count;
+        }
+        return count;
+    }
+
+    @Nonnull
+    Object2LongMap<ItemKey> getContents() {
+        Object2LongMap<ItemKey> contents = new Object2LongOpenHashMap<>(entries.size());
+        for (Entry entry : entries.values()) {
+            contents.put(entry.key, entry.count);
+        }
+        return contents;
+    }
+
+    private static class Entry {
+        private final ItemKey key;
+        /**
+         * A stack of one with this identity, given to filters.
+         */
+        private final ItemStack sample;
+        private long count;
+
+        private Entry(ItemKey key) {
+            this.key = key;
+            this.sample = key.toStack(1);
+        }
+    }
+}
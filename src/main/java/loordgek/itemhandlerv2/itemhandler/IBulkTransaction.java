@@ -0,0 +1,27 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A transaction made of several inputs, planned and confirmed as one.
+ * <p/>
+ * The results are kept per input, for an insert the leftover of the stack, for an extract what the filter got.
+ * {@link #getResult()} gives the first non empty result and {@link #getResultAmount()} the sum of all of them.
+ */
+public interface IBulkTransaction extends ITransaction {
+
+    int getInputCount();
+
+    /**
+     * Gets the result of one input, the stack is a copy.
+     */
+    @Nonnull
+    ItemStack getResult(int input);
+
+    /**
+     * Gets the result amount of one input.
+     */
+    int getResultAmount(int input);
+}
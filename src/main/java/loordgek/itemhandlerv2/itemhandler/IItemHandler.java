@@ -3,9 +3,13 @@ package loordgek.itemhandlerv2.itemhandler;
 
 import loordgek.itemhandlerv2.filter.IStackFilter;
 import net.minecraft.item.ItemStack;
+import net.minecraftforge.items.ItemHandlerHelper;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
 
 public interface IItemHandler extends Iterable<ItemStack> {
 
@@ -16,6 +20,21 @@ public interface IItemHandler extends Iterable<ItemStack> {
 
     int getSlotLimit(int slot);
 
+    /**
+     * Gets the stack in the slot for code that modifies it in place, like the vanilla container code does through
+     * {@link SlotItemHandler}. Call {@link #onStackChanged(int)} once it is modified.
+     */
+    @Nonnull
+    default ItemStack getStackForModification(int slot) {
+        return getStackInSlot(slot);
+    }
+
+    /**
+     * Tells the handler the stack in the slot was modified in place instead of through a transaction.
+     */
+    default void onStackChanged(int slot) {
+    }
+
     @Override
     @Nonnull
     default Iterator<ItemStack> iterator() {
@@ -36,18 +55,148 @@ public interface IItemHandler extends Iterable<ItemStack> {
 
             @Override
             public void remove() {
-                setStack(index, ItemStack.EMPTY).confirm();
+                setStack(index - 1, ItemStack.EMPTY).confirm();
             }
         };
     }
 
+    /**
+     * Calls the consumer for every slot that holds a stack, in slot order.
+     * The stacks are the ones in the inventory and must not be modified.
+     */
+    default void forEachNonEmpty(ISlotConsumer consumer) {
+        for (int slot = 0; slot < size(); slot++) {
+            ItemStack stack = getStackInSlot(slot);
+            if (!stack.isEmpty())
+                consumer.accept(slot, stack);
+        }
+    }
+
+    /**
+     * Gets how many items with the identity of the stack this inventory holds, the count of the stack is ignored.
+     */
+    default long countOf(ItemStack stack) {
+        if (stack.isEmpty())
+            return 0;
+        long count = 0;
+        for (int slot = 0; slot < size(); slot++) {
+            ItemStack stackInSlot = getStackInSlot(slot);
+            if (ItemHandlerHelper.canItemStacksStack(stack, stackInSlot))
+                count += stackInSlot.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets how many items matching the filter this inventory holds.
+     * <p/>
+     * Handlers that keep a total per identity, like {@link ItemHandler} and {@link MassItemHandler}, test the
+     * filter once per identity with a stack of one. Filters that look at the count or at capabilities that are not
+     * in the NBT can then give a different answer than a test of every stack.
+     */
+    default long countOf(IStackFilter filter) {
+        long count = 0;
+        for (int slot = 0; slot < size(); slot++) {
+            ItemStack stackInSlot = getStackInSlot(slot);
+            if (!stackInSlot.isEmpty() && filter.test(stackInSlot))
+                count += stackInSlot.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets a spliterator over the stacks that are not empty, it can be split for parallel streams.
+     * The stacks are the ones in the inventory and must not be modified.
+     */
+    @Nonnull
+    default Spliterator<ItemStack> nonEmptySpliterator() {
+        return new NonEmptySpliterator(this, null);
+    }
+
     ITransaction setStack(int slot, ItemStack stack);
 
     ITransaction insert(int slot, ItemStack stack);
 
     ITransaction insert(ItemStack stack);
 
+    /**
+     * Inserts the amount of items with the identity of the prototype, the count of the prototype is ignored.
+     * <p/>
+     * Together with {@link ITransaction#getResultUnsafe()} and {@link ITransaction#getResultAmount()} this moves
+     * items between handlers without copying stacks in between. The prototype is not modified or stored.
+     * The default makes one copy of the prototype with the amount.
+     */
+    default ITransaction insert(ItemStack prototype, int amount) {
+        if (prototype.isEmpty() || amount <= 0)
+            return ITransaction.INVALID;
+        return insert(ItemHandlerHelper.copyStackWithSize(prototype, amount));
+    }
+
     ITransaction extract(int slot, int amount);
 
     ITransaction extract(IStackFilter filter, int amount);
+
+    /**
+     * Plans inserting all the stacks as one transaction, the result of every input is its leftover.
+     * <p/>
+     * The default plans the stacks one by one and is not atomic, confirming plans every stack again whose
+     * transaction is no longer valid and confirms the stacks one after another, see {@link SequentialBulkTransaction}.
+     */
+    default IBulkTransaction insertAll(Collection<ItemStack> stacks) {
+        ItemStack[] inputs = stacks.toArray(new ItemStack[0]);
+        return new SequentialBulkTransaction(inputs.length, input -> insert(inputs[input]), inputs);
+    }
+
+    /**
+     * Plans extracting the amount of every filter as one transaction, the result of every input is what its filter got.
+     * Like {@link #extract(IStackFilter, int)} every filter only gets one kind of item.
+     * <p/>
+     * The default plans the filters one by one and is not atomic, confirming plans every filter again whose
+     * transaction is no longer valid and confirms the filters one after another, see {@link SequentialBulkTransaction}.
+     */
+    default IBulkTransaction extractAll(List<IStackFilter> filters, int[] amounts) {
+        if (filters.size() != amounts.length)
+            throw new IllegalArgumentException("every filter needs one amount");
+        return new SequentialBulkTransaction(amounts.length, input -> extract(filters.get(input), amounts[input]), null);
+    }
+
+    /**
+     * Gets how many items of the stack could be inserted in the slot, without planning a transaction.
+     */
+    default int getInsertableAmount(int slot, ItemStack stack) {
+        ITransaction transaction = insert(slot, stack);
+        int amount = transaction.getType().isSuccess() ? stack.getCount() - transaction.getResultAmount() : 0;
+        transaction.cancel();
+        return amount;
+    }
+
+    /**
+     * Gets how many items of the stack could be inserted anywhere in this inventory, without planning a transaction.
+     */
+    default int getInsertableAmount(ItemStack stack) {
+        ITransaction transaction = insert(stack);
+        int amount = transaction.getType().isSuccess() ? stack.getCount() - transaction.getResultAmount() : 0;
+        transaction.cancel();
+        return amount;
+    }
+
+    /**
+     * Gets how many items could be extracted from the slot, without planning a transaction.
+     */
+    default int getExtractableAmount(int slot, int amount) {
+        ITransaction transaction = extract(slot, amount);
+        int extractable = transaction.getType().isSuccess() ? transaction.getResultAmount() : 0;
+        transaction.cancel();
+        return extractable;
+    }
+
+    /**
+     * Gets how many items matching the filter could be extracted, without planning a transaction.
+     */
+    default int getExtractableAmount(IStackFilter filter, int amount) {
+        ITransaction transaction = extract(filter, amount);
+        int extractable = transaction.getType().isSuccess() ? transaction.getResultAmount() : 0;
+        transaction.cancel();
+        return extractable;
+    }
 }
@@ -0,0 +1,35 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nullable;
+
+/**
+ * A handler whose confirmed changes can be rolled back by a {@link TransactionGroup}.
+ */
+public interface IJournaledItemHandler extends IItemHandler {
+
+    /**
+     * Starts recording every confirmed change into the journal, the observers are not notified until
+     * {@link #endJournal()}.
+     *
+     * @throws IllegalStateException if the handler is already in a group
+     */
+    void beginJournal(UndoJournal journal);
+
+    /**
+     * Checks if the handler is in a group, its confirmed changes are recorded then.
+     */
+    boolean isJournaling();
+
+    /**
+     * Stops recording and notifies the observers of all the slots changed since {@link #beginJournal(UndoJournal)}.
+     */
+    void endJournal();
+
+    /**
+     * Reverts one entry recorded by {@link UndoJournal#record(IJournaledItemHandler, int, int, ItemStack)}.
+     * This invalidates the planned transactions of the handler.
+     */
+    void undo(int slot, int delta, @Nullable ItemStack previous);
+}
@@ -0,0 +1,14 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives a slot together with the stack in it, the slot is passed as a primitive so nothing is boxed.
+ */
+@FunctionalInterface
+public interface ISlotConsumer {
+
+    void accept(int slot, @Nonnull ItemStack stack);
+}
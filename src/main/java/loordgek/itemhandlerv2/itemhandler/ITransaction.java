@@ -16,11 +16,12 @@ public interface ITransaction {
     ItemStack getResult();
 
     /**
-     * Gets the resulting {@link ItemStack} of this transaction.
-     * <p>
-     * DO NOT MODIFY THE ItemStack
-     * the size of the stack is not accurate use getResultAmount to get the amount
-     * <p>
+     * Gets the resulting {@link ItemStack} of this transaction without copying it.
+     * <p/>
+     * DO NOT MODIFY THE ItemStack, it can be a stack in the inventory.
+     * Only its identity counts, the size of the stack is not accurate, use {@link #getResultAmount()} to get the amount.
+     * Pass both to {@link IItemHandler#insert(ItemStack, int)} to move the items without a copy, or keep them in a
+     * {@link ResultHolder} when the handler plans another transaction before they are used.
      * <p/>
      * When inserting, this is the leftover stack.<br/>
      * When extracting, this is the stack that was extracted.
@@ -48,6 +49,13 @@ public interface ITransaction {
     @Nonnull
     ITransaction confirm();
 
+    /**
+     * Puts the result in the holder without copying the stack, it stays there when the handler changes the stack afterwards.
+     */
+    default ResultHolder getResult(ResultHolder holder) {
+        return holder.set(getResultUnsafe(), getResultAmount());
+    }
+
     /**
      * Checks the validity of this transaction.
      */
@@ -1,27 +1,98 @@
 package loordgek.itemhandlerv2.itemhandler;
 
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
 import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.metrics.HandlerMetrics;
+import loordgek.itemhandlerv2.observer.BackpressurePolicy;
 import loordgek.itemhandlerv2.observer.IItemHandlerObserver;
 import loordgek.itemhandlerv2.observer.IItemHandlerObserverble;
+import loordgek.itemhandlerv2.observer.ObserverList;
+import loordgek.itemhandlerv2.util.SlotBitSet;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
-import net.minecraft.util.NonNullList;
 import net.minecraftforge.items.ItemHandlerHelper;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
-
-public class ItemHandler implements IItemHandler, IItemHandlerObserverble {
-    private final List<IItemHandlerObserver> observers = new ArrayList<>();
-    private final NonNullList<ItemStack> stacks;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+
+public class ItemHandler implements IJournaledItemHandler, IItemHandlerObserverble {
+    private static final int MAX_POOLED_OPERATIONS = 4;
+    private final ObserverList observers = new ObserverList(this);
+    private final Deque<SlotOperations> operationsPool = new ArrayDeque<>(MAX_POOLED_OPERATIONS);
+    private final StackChunks stacks;
+    private final SlotBitSet occupied;
+    private final ContentTable contents;
+    @Nullable
+    private final SlotIndex index;
     @Nullable
     private Transaction activeTransaction = null;
+    @Nullable
+    private ItemHandlerSnapshot snapshot;
+    private long version;
+    @Nullable
+    private UndoJournal journal;
+    private boolean coalescingBeforeJournal;
+    @Nullable
+    private HandlerMetrics metrics;
+    private int slotsScanned;
 
     public ItemHandler(int size) {
-        this.stacks = NonNullList.withSize(size, ItemStack.EMPTY);
+        this(size, false);
+    }
+
+    /**
+     * @param indexed keep an index of the slots per item, this makes {@link #insert(ItemStack)} and
+     *                {@link #extract(IStackFilter, int)} only visit the slots that matter at the cost of
+     *                some bookkeeping on every confirm.
+     */
+    public ItemHandler(int size, boolean indexed) {
+        this.stacks = new StackChunks(size);
+        this.occupied = new SlotBitSet(size);
+        this.contents = new ContentTable(size);
+        this.index = indexed ? new SlotIndex(size) : null;
+    }
+
+    /**
+     * Gets the version of the contents, it changes every time a transaction is confirmed.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets an immutable view of the current contents that can be read from other threads.
+     * <p/>
+     * Taking a snapshot is constant time, the storage is shared and the chunks of 64 slots are only copied
+     * when they are written afterwards. Without a write in between the same snapshot is returned.
+     * It must be taken on the thread that modifies this handler.
+     */
+    @Nonnull
+    public ItemHandlerSnapshot snapshot() {
+        if (snapshot == null || snapshot.getVersion() != version)
+            snapshot = new ItemHandlerSnapshot(this, stacks.share(), size(), version);
+        return snapshot;
+    }
+
+    /**
+     * Sets the metrics this handler records to, null turns the recording off.
+     */
+    public void setMetrics(@Nullable HandlerMetrics metrics) {
+        this.metrics = metrics;
     }
 
     @Override
@@ -44,143 +115,516 @@ public class ItemHandler implements IItemHandler, IItemHandlerObserverble {
         return 64;
     }
 
+    /**
+     * Copies the stack first if a snapshot may see it.
+     */
+    @Nonnull
+    @Override
+    public ItemStack getStackForModification(int slot) {
+        return stacks.getOwned(slot);
+    }
+
+    /**
+     * Counts the slot again and notifies the observers, the planned transaction is no longer valid.
+     * A change made this way is not recorded in the journal of a {@link TransactionGroup}.
+     */
+    @Override
+    public void onStackChanged(int slot) {
+        activeTransaction = null;
+        if (stacks.get(slot).isEmpty())
+            stacks.set(slot, ItemStack.EMPTY);
+        ItemStack stack = stacks.get(slot);
+        if (stack.isEmpty())
+            occupied.remove(slot);
+        else occupied.add(slot);
+        contents.update(slot, stack);
+        version++;
+        updateIndex(slot);
+        observers.markChanged(slot);
+        observers.changed();
+    }
+
+    @Override
+    public void forEachNonEmpty(ISlotConsumer consumer) {
+        for (int slot = occupied.nextSetBit(0); slot != -1; slot = occupied.nextSetBit(slot + 1)) {
+            consumer.accept(slot, stacks.get(slot));
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Spliterator<ItemStack> nonEmptySpliterator() {
+        return new NonEmptySpliterator(this, occupied);
+    }
+
+    @Override
+    public long countOf(ItemStack stack) {
+        return stack.isEmpty() ? 0 : contents.countOf(ItemKey.of(stack));
+    }
+
+    @Override
+    public long countOf(IStackFilter filter) {
+        return contents.countOf(filter);
+    }
+
+    /**
+     * Gets a copy of the total count of every item identity in this inventory,
+     * it costs one entry per identity regardless of the size of the inventory.
+     */
+    @Nonnull
+    public Object2LongMap<ItemKey> getContents() {
+        return contents.getContents();
+    }
+
     @Override
     public ITransaction setStack(int slot, ItemStack stack) {
         if (stack.isEmpty() && getStackInSlot(slot).isEmpty())
-            return ITransaction.UNDEFINED;
+            return record(ITransaction.UNDEFINED);
         int limit = Math.min(stack.getCount(), getStackLimit(slot, stack));
 
-
-        Transaction transaction = new Transaction(stack, getSlotLimit(slot) - limit);
-        transaction.addSlot(slot);
-        transaction.addTask(() -> {
-            if (stack.isEmpty())
-                stacks.set(slot, ItemStack.EMPTY);
-            else stacks.set(slot, ItemHandlerHelper.copyStackWithSize(stack, limit));
-        });
-        return transaction;
+        Transaction transaction = obtainTransaction(stack, stack.getCount() - limit);
+        transaction.replace(slot, stack, limit);
+        return record(transaction);
     }
 
     @Override
     public ITransaction insert(int slot, ItemStack stack) {
         if (stack.isEmpty())
-            return ITransaction.UNDEFINED;
+            return record(ITransaction.UNDEFINED);
 
         ItemStack stackInSlot = getStackInSlot(slot);
 
         int limit = getStackLimit(slot, stack);
 
         if (!stackInSlot.isEmpty()) {
-            if (!ItemHandlerHelper.canItemStacksStack(stack, stackInSlot))
-                return ITransaction.INVALID;
+            if (!canStack(slot, contents.find(stack), stack))
+                return record(ITransaction.INVALID);
 
             limit -= stackInSlot.getCount();
         }
-        if (!ItemHandlerHelper.canItemStacksStack(stackInSlot, stack))
-            return ITransaction.INVALID;
-
-        if (limit == 0)
-            return ITransaction.FAILURE;
-        Transaction transaction = new Transaction(stack, stackInSlot.getCount() - limit);
-        int finalLimit = limit;
-        transaction.addTask(() -> {
-            if (stackInSlot.isEmpty()) {
-                stacks.set(slot, ItemHandlerHelper.copyStackWithSize(stack, finalLimit));
-            } else stackInSlot.grow(finalLimit);
-        });
-        transaction.addSlot(slot);
-        return transaction;
+
+        if (limit <= 0)
+            return record(ITransaction.FAILURE);
+        int toInsert = Math.min(limit, stack.getCount());
+        Transaction transaction = obtainTransaction(stack, stack.getCount() - toInsert);
+        if (stackInSlot.isEmpty())
+            transaction.replace(slot, stack, toInsert);
+        else transaction.grow(slot, toInsert);
+        return record(transaction);
     }
 
     @Override
     public ITransaction insert(ItemStack stack) {
-        if (stack.isEmpty())
-            return ITransaction.INVALID;
+        return insert(stack, stack.getCount());
+    }
 
-        Transaction transaction = new Transaction(stack, 0);
-        int remainder = stack.getCount();
-        for (int i = 0; i < size(); i++) {
-            if (remainder == 0)
-                break;
-            int slot = i;
-            ItemStack stackInSlot = getStackInSlot(slot);
-            if (stackInSlot.isEmpty()) {
-                int limit = Math.min(remainder, getStackLimit(slot, stack));
-                remainder -= limit;
-                transaction.addTask(() -> stacks.set(slot, ItemHandlerHelper.copyStackWithSize(stack, limit)));
-                transaction.addSlot(slot);
-            } else if (ItemHandlerHelper.canItemStacksStack(stackInSlot, stack)) {
-                int limit = Math.min(remainder, Math.min(stackInSlot.getCount(), getStackLimit(slot, stack)));
-                remainder -= limit;
-                transaction.addTask(() -> stackInSlot.grow(limit));
-                transaction.addSlot(slot);
+    /**
+     * Plans against the prototype directly, the only stacks created are the ones that end up in empty slots.
+     */
+    @Override
+    public ITransaction insert(ItemStack stack, int amount) {
+        slotsScanned = 0;
+        if (stack.isEmpty() || amount <= 0)
+            return recordInsertScan(ITransaction.INVALID);
+
+        Transaction transaction = obtainTransaction(stack, 0);
+        int remainder = amount;
+        ItemKey key = contents.find(stack);
+        if (index != null) {
+            if (key != null)
+                remainder = planInsert(transaction, index.getSlotsWithRoom(key), key, stack, remainder);
+            remainder = planInsert(transaction, index.getEmptySlots(), key, stack, remainder);
+        } else {
+            for (int slot = 0; slot < size() && remainder > 0; slot++) {
+                remainder = planInsert(transaction, slot, key, stack, remainder);
             }
-
         }
         if (remainder == 0)
             transaction.result = ItemStack.EMPTY;
-        if (remainder == stack.getCount())
-            return ITransaction.FAILURE;
+        if (remainder == amount) {
+            transaction.release();
+            return recordInsertScan(ITransaction.FAILURE);
+        }
         transaction.growResult(remainder);
 
-        return transaction;
+        return recordInsertScan(transaction);
+    }
+
+    private int planInsert(Transaction transaction, IntSortedSet slots, @Nullable ItemKey key, ItemStack stack, int remainder) {
+        for (IntIterator iterator = slots.iterator(); iterator.hasNext() && remainder > 0; ) {
+            remainder = planInsert(transaction, iterator.nextInt(), key, stack, remainder);
+        }
+        return remainder;
+    }
+
+    private int planInsert(Transaction transaction, int slot, @Nullable ItemKey key, ItemStack stack, int remainder) {
+        slotsScanned++;
+        int limit = Math.min(remainder, getRoom(slot, key, stack));
+        if (limit <= 0)
+            return remainder;
+        if (getStackInSlot(slot).isEmpty())
+            transaction.replace(slot, stack, limit);
+        else transaction.grow(slot, limit);
+        return remainder - limit;
+    }
+
+    /**
+     * Gets how many items of the stack fit on top of the stack in the slot.
+     *
+     * @param key the interned identity of the stack as returned by {@link ContentTable#find(ItemStack)}
+     */
+    private int getRoom(int slot, @Nullable ItemKey key, ItemStack stack) {
+        ItemStack stackInSlot = getStackInSlot(slot);
+        if (stackInSlot.isEmpty())
+            return getStackLimit(slot, stack);
+        if (canStack(slot, key, stack))
+            return Math.max(0, getStackLimit(slot, stack) - stackInSlot.getCount());
+        return 0;
+    }
+
+    /**
+     * Plans all the stacks in one pass: the occupied slots are topped up from the inputs of the same item,
+     * then the inputs fill the empty slots in order.
+     */
+    @Override
+    public IBulkTransaction insertAll(Collection<ItemStack> stacks) {
+        ItemStack[] inputs = stacks.toArray(new ItemStack[0]);
+        int[] remainders = new int[inputs.length];
+        // the inputs grouped by identity, in the order of their first input
+        Map<ItemKey, InputGroup> groupsByKey = new Object2ObjectOpenHashMap<>();
+        Map<ItemKey, InputGroup> groupsByStoredKey = new Reference2ObjectOpenHashMap<>();
+        List<InputGroup> groups = new ArrayList<>();
+        for (int i = 0; i < inputs.length; i++) {
+            remainders[i] = inputs[i].getCount();
+            if (inputs[i].isEmpty())
+                continue;
+            InputGroup group = groupsByKey.get(ItemKey.of(inputs[i]));
+            if (group == null) {
+                group = new InputGroup();
+                groupsByKey.put(ItemKey.of(inputs[i]), group);
+                groups.add(group);
+                ItemKey storedKey = contents.find(inputs[i]);
+                if (storedKey != null)
+                    groupsByStoredKey.put(storedKey, group);
+            }
+            group.inputs.add(i);
+        }
+        Transaction transaction = obtainTransaction(ItemStack.EMPTY, 0);
+        if (!groupsByStoredKey.isEmpty()) {
+            for (int slot = occupied.nextSetBit(0); slot != -1; slot = occupied.nextSetBit(slot + 1)) {
+                InputGroup group = groupsByStoredKey.get(contents.getKey(slot));
+                if (group == null)
+                    continue;
+                ItemStack stackInSlot = this.stacks.get(slot);
+                int room = getStackLimit(slot, stackInSlot) - stackInSlot.getCount();
+                for (int j = 0; j < group.inputs.size() && room > 0; j++) {
+                    int input = group.inputs.getInt(j);
+                    if (remainders[input] == 0 || !stackInSlot.areCapsCompatible(inputs[input]))
+                        continue;
+                    int toInsert = Math.min(room, remainders[input]);
+                    transaction.grow(slot, toInsert);
+                    remainders[input] -= toInsert;
+                    room -= toInsert;
+                }
+            }
+        }
+        int slot = occupied.nextClearBit(0);
+        for (InputGroup group : groups) {
+            ItemStack first = ItemStack.EMPTY;
+            int room = 0;
+            for (int j = 0; j < group.inputs.size() && slot < size(); j++) {
+                int input = group.inputs.getInt(j);
+                while (remainders[input] > 0 && slot < size()) {
+                    if (room > 0 && first.areCapsCompatible(inputs[input])) {
+                        int toInsert = Math.min(room, remainders[input]);
+                        transaction.grow(slot, toInsert);
+                        remainders[input] -= toInsert;
+                        room -= toInsert;
+                        continue;
+                    }
+                    if (!first.isEmpty())
+                        slot = occupied.nextClearBit(slot + 1);
+                    if (slot >= size())
+                        break;
+                    first = inputs[input];
+                    int toInsert = Math.min(getStackLimit(slot, first), remainders[input]);
+                    transaction.replace(slot, first, toInsert);
+                    remainders[input] -= toInsert;
+                    room = getStackLimit(slot, first) - toInsert;
+                }
+            }
+            // the next identity starts in a new slot
+            if (!first.isEmpty())
+                slot = occupied.nextClearBit(slot + 1);
+        }
+        return record(newBulkTransaction(transaction, inputs, remainders));
+    }
+
+    /**
+     * Plans all the filters in one pass over the occupied slots, a slot goes to the first filter that still
+     * needs items and matches it.
+     */
+    @Override
+    public IBulkTransaction extractAll(List<IStackFilter> filters, int[] amounts) {
+        if (filters.size() != amounts.length)
+            throw new IllegalArgumentException("every filter needs one amount");
+        int requests = amounts.length;
+        ItemStack[] matches = new ItemStack[requests];
+        ItemKey[] matchKeys = new ItemKey[requests];
+        int[] left = new int[requests];
+        int[] extracted = new int[requests];
+        List<Set<Item>> candidates = new ArrayList<>(requests);
+        int active = 0;
+        for (int i = 0; i < requests; i++) {
+            matches[i] = ItemStack.EMPTY;
+            left[i] = Math.max(0, amounts[i]);
+            candidates.add(filters.get(i).getCandidateItems());
+            if (left[i] > 0)
+                active++;
+        }
+        Transaction transaction = obtainTransaction(ItemStack.EMPTY, 0);
+        for (int slot = occupied.nextSetBit(0); slot != -1 && active > 0; slot = occupied.nextSetBit(slot + 1)) {
+            ItemStack stackInSlot = stacks.get(slot);
+            ItemKey key = contents.getKey(slot);
+            int available = stackInSlot.getCount();
+            for (int i = 0; i < requests && available > 0; i++) {
+                if (left[i] == 0)
+                    continue;
+                if (matches[i].isEmpty()) {
+                    if (!isCandidate(candidates.get(i), stackInSlot) || !filters.get(i).test(stackInSlot))
+                        continue;
+                    matches[i] = stackInSlot;
+                    matchKeys[i] = key;
+                } else if (!canStack(slot, matchKeys[i], matches[i]))
+                    continue;
+                int toExtract = Math.min(available, left[i]);
+                transaction.grow(slot, -toExtract);
+                available -= toExtract;
+                extracted[i] += toExtract;
+                left[i] -= toExtract;
+                if (left[i] == 0)
+                    active--;
+            }
+        }
+        return record(newBulkTransaction(transaction, matches, extracted));
+    }
+
+    private BulkTransaction newBulkTransaction(Transaction transaction, ItemStack[] stacks, int[] amounts) {
+        if (transaction.isEmpty()) {
+            transaction.release();
+            return new BulkTransaction(null, stacks, amounts);
+        }
+        return new BulkTransaction(transaction, stacks, amounts);
+    }
+
+    private static class InputGroup {
+        private final IntList inputs = new IntArrayList(1);
+    }
+
+    /**
+     * Checks if the stack in the slot can stack with a stack of the identity, the keys are interned
+     * so this is a reference compare instead of a walk over the NBT.
+     */
+    private boolean canStack(int slot, @Nullable ItemKey key, ItemStack stack) {
+        return key != null && contents.getKey(slot) == key && getStackInSlot(slot).areCapsCompatible(stack);
     }
 
     @Override
     public ITransaction extract(int slot, int amount) {
         if (amount == 0) {
-            return ITransaction.UNDEFINED;
+            return record(ITransaction.UNDEFINED);
         }
         ItemStack stackInSlot = getStackInSlot(slot);
         if (stackInSlot.isEmpty())
-            return ITransaction.FAILURE;
+            return record(ITransaction.FAILURE);
 
         int toExtract = Math.min(stackInSlot.getCount(), amount);
 
-        Transaction transaction = new Transaction(stackInSlot, toExtract);
-        activeTransaction = transaction;
-        transaction.addSlot(slot);
-        transaction.addTask(() -> {
-            if (toExtract == amount)
-                stacks.set(slot, ItemStack.EMPTY);
-            else stackInSlot.shrink(toExtract);
-        });
-
-        return transaction;
+        Transaction transaction = obtainTransaction(stackInSlot, 0);
+        planExtract(transaction, slot, toExtract);
+        return record(transaction);
     }
 
     @Override
     public ITransaction extract(IStackFilter filter, int amount) {
-        if (amount == 0) {
-            return ITransaction.UNDEFINED;
+        slotsScanned = 0;
+        if (amount <= 0) {
+            return recordExtractScan(ITransaction.INVALID);
         }
-        Transaction transaction = new Transaction(ItemStack.EMPTY, 0);
-        activeTransaction = transaction;
-        boolean foundStack = false;
+        Transaction transaction = obtainTransaction(ItemStack.EMPTY, 0);
         int amountLeft = amount;
-        for (int i = 0; i < size(); i++) {
-            int slot = i;
+        if (index != null) {
+            ItemKey match = findMatch(filter);
+            if (match == null) {
+                transaction.release();
+                return recordExtractScan(ITransaction.FAILURE);
+            }
+            for (IntIterator iterator = index.getSlots(match).iterator(); iterator.hasNext() && amountLeft > 0; ) {
+                int slot = iterator.nextInt();
+                // the same identity can still differ in capabilities
+                if (transaction.result.isEmpty())
+                    transaction.result = getStackInSlot(slot);
+                else if (!canStack(slot, match, transaction.result))
+                    continue;
+                amountLeft = planExtract(transaction, slot, amountLeft);
+            }
+            return recordExtractScan(transaction);
+        }
+        Set<Item> candidates = filter.getCandidateItems();
+        ItemKey matchKey = null;
+        for (int slot = 0; slot < size() && amountLeft > 0; slot++) {
+            slotsScanned++;
             ItemStack stackInSlot = getStackInSlot(slot);
-            if (!stackInSlot.isEmpty() && filter.test(stackInSlot)) {
+            if (isCandidate(candidates, stackInSlot) && filter.test(stackInSlot)) {
                 if (transaction.result.isEmpty()) {
                     transaction.result = stackInSlot;
-                } else if (!ItemHandlerHelper.canItemStacksStack(transaction.result, stackInSlot))
+                    matchKey = contents.getKey(slot);
+                } else if (!canStack(slot, matchKey, transaction.result))
                     continue;
-                foundStack = true;
-                int toExtract = Math.min(stackInSlot.getCount(), amountLeft);
-                amountLeft =- toExtract;
-                transaction.growResult(toExtract);
-                transaction.addSlot(slot);
-                transaction.addTask(() -> {
-                    if (toExtract == amount)
-                        stacks.set(slot, ItemStack.EMPTY);
-                    else stackInSlot.shrink(toExtract);
-                });
+                amountLeft = planExtract(transaction, slot, amountLeft);
             }
         }
-        if (foundStack)
-            return transaction;
-        return ITransaction.FAILURE;
+        if (!transaction.result.isEmpty())
+            return recordExtractScan(transaction);
+        transaction.release();
+        return recordExtractScan(ITransaction.FAILURE);
+    }
+
+    /**
+     * Finds the identity to extract with the index, the filter is tested once per identity and the identity
+     * in the lowest slot wins like it would in a linear scan.
+     */
+    @Nullable
+    private ItemKey findMatch(IStackFilter filter) {
+        Set<Item> candidates = filter.getCandidateItems();
+        if (candidates == null || candidates.size() >= index.getKeys().size())
+            return findMatch(filter, index.getKeys(), null);
+        ItemKey match = null;
+        for (Item item : candidates) {
+            match = findMatch(filter, index.getKeys(item), match);
+        }
+        return match;
+    }
+
+    @Nullable
+    private ItemKey findMatch(IStackFilter filter, Set<ItemKey> keys, @Nullable ItemKey match) {
+        int firstSlot = match == null ? Integer.MAX_VALUE : index.getSlots(match).firstInt();
+        for (ItemKey key : keys) {
+            slotsScanned++;
+            int slot = index.getSlots(key).firstInt();
+            if (slot < firstSlot && filter.test(getStackInSlot(slot))) {
+                match = key;
+                firstSlot = slot;
+            }
+        }
+        return match;
+    }
+
+    private static boolean isCandidate(@Nullable Set<Item> candidates, ItemStack stack) {
+        return !stack.isEmpty() && (candidates == null || candidates.contains(stack.getItem()));
+    }
+
+    private int planExtract(Transaction transaction, int slot, int amountLeft) {
+        slotsScanned++;
+        ItemStack stackInSlot = getStackInSlot(slot);
+        int toExtract = Math.min(stackInSlot.getCount(), amountLeft);
+        transaction.growResult(toExtract);
+        if (toExtract == stackInSlot.getCount())
+            transaction.replace(slot, ItemStack.EMPTY, 0);
+        else transaction.grow(slot, -toExtract);
+        return amountLeft - toExtract;
+    }
+
+    /**
+     * The fast path of {@link ItemTransfer#transfer(IItemHandler, IItemHandler, IStackFilter, int)}, the planned
+     * extract is cut down to what the destination accepts so each side is planned once.
+     *
+     * @return the amount of items moved
+     */
+    int transferTo(ItemHandler destination, IStackFilter filter, int max) {
+        ITransaction planned = extract(filter, max);
+        if (!planned.getType().isSuccess())
+            return 0;
+        Transaction extract = (Transaction) planned;
+        ITransaction insert = destination.insert(extract.result, extract.resultAmount);
+        if (!insert.getType().isSuccess()) {
+            extract.cancel();
+            return 0;
+        }
+        int accepted = extract.resultAmount - insert.getResultAmount();
+        extract.truncate(accepted);
+        return ItemTransfer.confirm(destination, extract, insert, extract.result, accepted);
+    }
+
+    @Override
+    public int getInsertableAmount(int slot, ItemStack stack) {
+        if (stack.isEmpty())
+            return 0;
+        return Math.min(stack.getCount(), getRoom(slot, contents.find(stack), stack));
+    }
+
+    @Override
+    public int getInsertableAmount(ItemStack stack) {
+        if (stack.isEmpty())
+            return 0;
+        int remainder = stack.getCount();
+        ItemKey key = contents.find(stack);
+        if (index != null) {
+            if (key != null)
+                remainder -= getRoom(index.getSlotsWithRoom(key), key, stack, remainder);
+            remainder -= getRoom(index.getEmptySlots(), key, stack, remainder);
+        } else {
+            for (int slot = 0; slot < size() && remainder > 0; slot++) {
+                remainder -= Math.min(remainder, getRoom(slot, key, stack));
+            }
+        }
+        return stack.getCount() - remainder;
+    }
+
+    private int getRoom(IntSortedSet slots, @Nullable ItemKey key, ItemStack stack, int max) {
+        int room = 0;
+        for (IntIterator iterator = slots.iterator(); iterator.hasNext() && room < max; ) {
+            room += getRoom(iterator.nextInt(), key, stack);
+        }
+        return Math.min(room, max);
+    }
+
+    @Override
+    public int getExtractableAmount(int slot, int amount) {
+        if (amount <= 0)
+            return 0;
+        return Math.min(getStackInSlot(slot).getCount(), amount);
+    }
+
+    @Override
+    public int getExtractableAmount(IStackFilter filter, int amount) {
+        if (amount <= 0)
+            return 0;
+        int extractable = 0;
+        if (index != null) {
+            ItemKey match = findMatch(filter);
+            if (match == null)
+                return 0;
+            for (IntIterator iterator = index.getSlots(match).iterator(); iterator.hasNext() && extractable < amount; ) {
+                extractable += getStackInSlot(iterator.nextInt()).getCount();
+            }
+            return Math.min(extractable, amount);
+        }
+        ItemStack match = ItemStack.EMPTY;
+        ItemKey matchKey = null;
+        Set<Item> candidates = filter.getCandidateItems();
+        for (int slot = 0; slot < size() && extractable < amount; slot++) {
+            ItemStack stackInSlot = getStackInSlot(slot);
+            if (isCandidate(candidates, stackInSlot) && filter.test(stackInSlot)) {
+                if (match.isEmpty()) {
+                    match = stackInSlot;
+                    matchKey = contents.getKey(slot);
+                } else if (!canStack(slot, matchKey, match))
+                    continue;
+                extractable += stackInSlot.getCount();
+            }
+        }
+        return Math.min(extractable, amount);
     }
 
     @Override
@@ -193,82 +637,337 @@ public class ItemHandler implements IItemHandler, IItemHandlerObserverble {
         observers.remove(observer);
     }
 
-    private interface Executor {
-        void execute();
+    @Override
+    public void setCoalescing(boolean coalescing) {
+        observers.setCoalescing(coalescing);
     }
 
-    private class Transaction implements ITransaction {
-        private final IntSet slots = new IntOpenHashSet();
-        private final List<Executor> tasks = new ArrayList<>();
-        private ItemStack result;
-        private ItemStack resultCopy = ItemStack.EMPTY;
-        private int resultAmount;
+    @Override
+    public void flushObservers() {
+        observers.flush();
+    }
 
-        private Transaction(ItemStack result, int resultAmount) {
-            this.result = result;
-            this.resultAmount = resultAmount;
+    @Override
+    public void setAsyncDispatch(@Nullable Executor executor, int capacity, BackpressurePolicy policy) {
+        observers.setAsync(executor, capacity, policy);
+    }
+
+    @Override
+    public boolean isNotifyingDirectly() {
+        return !observers.isCoalescing() && !observers.isAsync();
+    }
+
+    private <T extends ITransaction> T record(T transaction) {
+        if (metrics != null)
+            metrics.onTransaction(transaction.getType());
+        return transaction;
+    }
+
+    private ITransaction recordInsertScan(ITransaction transaction) {
+        if (metrics != null)
+            metrics.onInsertScan(slotsScanned);
+        return record(transaction);
+    }
+
+    private ITransaction recordExtractScan(ITransaction transaction) {
+        if (metrics != null)
+            metrics.onExtractScan(slotsScanned);
+        return record(transaction);
+    }
+
+    @Override
+    public void beginJournal(UndoJournal journal) {
+        if (this.journal != null)
+            throw new IllegalStateException("the handler is already in a transaction group");
+        this.journal = journal;
+        this.coalescingBeforeJournal = observers.isCoalescing();
+        observers.setCoalescing(true);
+    }
+
+    @Override
+    public boolean isJournaling() {
+        return journal != null;
+    }
+
+    @Override
+    public void endJournal() {
+        this.journal = null;
+        observers.setCoalescing(coalescingBeforeJournal);
+    }
+
+    @Override
+    public void undo(int slot, int delta, @Nullable ItemStack previous) {
+        activeTransaction = null;
+        // the previous stack may still be seen by a snapshot, so it goes back as a copy
+        if (previous != null)
+            write(slot, previous.getCount(), previous);
+        else write(slot, -delta, null);
+        version++;
+        updateIndex(slot);
+        observers.markChanged(slot);
+    }
+
+    /**
+     * Applies one planned operation and records it in the journal, if any.
+     */
+    private void apply(int slot, int amount, @Nullable ItemStack replacement) {
+        if (journal != null) {
+            ItemStack stackInSlot = stacks.get(slot);
+            boolean replaced = replacement != null || stackInSlot.getCount() + amount <= 0;
+            journal.record(this, slot, replacement != null ? amount - stackInSlot.getCount() : amount, replaced ? stackInSlot : null);
         }
+        write(slot, amount, replacement);
+    }
 
-        void addTask(Executor executor) {
-            tasks.add(executor);
+    /**
+     * Grows the stack in the slot by the amount, or replaces it with a copy of the replacement with the amount as count.
+     */
+    private void write(int slot, int amount, @Nullable ItemStack replacement) {
+        int oldCount = stacks.get(slot).getCount();
+        if (replacement != null) {
+            if (amount <= 0 || replacement.isEmpty())
+                stacks.set(slot, ItemStack.EMPTY);
+            else stacks.set(slot, ItemHandlerHelper.copyStackWithSize(replacement, amount));
+        } else {
+            if (oldCount + amount <= 0)
+                stacks.set(slot, ItemStack.EMPTY);
+            else stacks.grow(slot, amount);
         }
+        ItemStack stack = stacks.get(slot);
+        if (stack.isEmpty())
+            occupied.remove(slot);
+        else occupied.add(slot);
+        contents.update(slot, stack);
+    }
 
-        void addSlot(int slot) {
-            slots.add(slot);
+    private void updateIndex(int slot) {
+        if (index == null)
+            return;
+        ItemStack stack = stacks.get(slot);
+        index.update(slot, contents.getKey(slot), !stack.isEmpty() && stack.getCount() < getStackLimit(slot, stack));
+    }
+
+    private Transaction obtainTransaction(ItemStack result, int resultAmount) {
+        SlotOperations operations = operationsPool.poll();
+        if (operations == null)
+            operations = new SlotOperations(4);
+        Transaction transaction = new Transaction(operations, result, resultAmount);
+        activeTransaction = transaction;
+        return transaction;
+    }
+
+    /**
+     * One transaction with the results of every input, which stay readable after it is confirmed.
+     */
+    private static class BulkTransaction implements IBulkTransaction {
+        @Nullable
+        private final Transaction transaction;
+        /**
+         * The inserted stacks or the extracted matches.
+         */
+        private final ItemStack[] stacks;
+        private final int[] amounts;
+
+        private BulkTransaction(@Nullable Transaction transaction, ItemStack[] stacks, int[] amounts) {
+            this.transaction = transaction;
+            this.stacks = stacks;
+            this.amounts = amounts;
+        }
+
+        @Override
+        public int getInputCount() {
+            return amounts.length;
         }
 
-        void growResult(int resultAmount) {
-            this.resultAmount += resultAmount;
+        @Nonnull
+        @Override
+        public ItemStack getResult(int input) {
+            return ItemHandlerHelper.copyStackWithSize(stacks[input], amounts[input]);
         }
 
         @Override
+        public int getResultAmount(int input) {
+            return amounts[input];
+        }
+
         @Nonnull
+        @Override
         public ItemStack getResult() {
-            if (result.isEmpty())
-                return result;
-            if (resultCopy.isEmpty())
-                resultCopy = ItemHandlerHelper.copyStackWithSize(result, resultAmount);
-            return resultCopy;
+            for (int i = 0; i < amounts.length; i++) {
+                if (amounts[i] > 0 && !stacks[i].isEmpty())
+                    return getResult(i);
+            }
+            return ItemStack.EMPTY;
         }
 
-        @Override
         @Nonnull
+        @Override
         public ItemStack getResultUnsafe() {
-            return result;
+            for (int i = 0; i < amounts.length; i++) {
+                if (amounts[i] > 0 && !stacks[i].isEmpty())
+                    return stacks[i];
+            }
+            return ItemStack.EMPTY;
         }
 
         @Override
         public int getResultAmount() {
-            return resultAmount;
+            int amount = 0;
+            for (int result : amounts) {
+                amount += result;
+            }
+            return amount;
+        }
+
+        @Nonnull
+        @Override
+        public ITransaction cancel() {
+            if (transaction != null)
+                transaction.cancel();
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public ITransaction confirm() {
+            if (transaction != null)
+                transaction.confirm();
+            return this;
+        }
+
+        @Override
+        public boolean isValid() {
+            return transaction != null && transaction.isValid();
+        }
+
+        @Nonnull
+        @Override
+        public TransactionType getType() {
+            return transaction != null ? transaction.getType() : TransactionType.FAILURE;
+        }
+    }
+
+    /**
+     * A plan of this handler, only one of them is valid at a time.
+     * <p/>
+     * The operations are kept in arrays that go back to the pool of the handler once the transaction is confirmed
+     * or cancelled, the handle itself is never reused so its results stay readable and a handle that was kept
+     * around can not act on a later plan. A confirm that finds the transaction invalid applies nothing and
+     * reports {@link TransactionType#CANCELLED}.
+     */
+    private class Transaction extends AbstractTransaction {
+        @Nullable
+        private SlotOperations operations;
+        private TransactionType type = TransactionType.SUCCESS;
+        private boolean confirmed;
+
+        private Transaction(SlotOperations operations, ItemStack result, int resultAmount) {
+            super(result, resultAmount);
+            this.operations = operations;
+        }
+
+        void grow(int slot, int amount) {
+            operations.grow(slot, amount);
+        }
+
+        void replace(int slot, ItemStack stack, int count) {
+            operations.replace(slot, stack, count);
+        }
+
+        private boolean isEmpty() {
+            return operations == null || operations.size == 0;
+        }
+
+        /**
+         * Cuts a planned extract down to the amount, the slots after it are left alone.
+         */
+        void truncate(int amount) {
+            int amountLeft = amount;
+            for (int i = 0; i < operations.size; i++) {
+                // a replacement empties the slot, so it takes the whole stack
+                int planned = operations.replacements[i] != null ? getStackInSlot(operations.slots[i]).getCount() : -operations.amounts[i];
+                if (amountLeft >= planned) {
+                    amountLeft -= planned;
+                } else if (amountLeft > 0) {
+                    operations.amounts[i] = -amountLeft;
+                    operations.replacements[i] = null;
+                    amountLeft = 0;
+                } else operations.truncate(i);
+            }
+            resultAmount = amount - amountLeft;
+        }
+
+        private void release() {
+            if (activeTransaction == this)
+                activeTransaction = null;
+            if (operations != null) {
+                operations.clear();
+                if (operationsPool.size() < MAX_POOLED_OPERATIONS)
+                    operationsPool.push(operations);
+                operations = null;
+            }
         }
 
         @Override
         @Nonnull
         public ITransaction cancel() {
-            tasks.clear();
-            slots.clear();
-            activeTransaction = null;
+            if (operations != null) {
+                if (metrics != null)
+                    metrics.onCancel();
+                release();
+            }
             return this;
         }
 
         @Override
         @Nonnull
         public ITransaction confirm() {
-            tasks.forEach(Executor::execute);
-            observers.forEach(observer -> observer.onInventoryChanged(ItemHandler.this, slots));
+            if (confirmed)
+                return this;
+            if (!isValid()) {
+                type = TransactionType.CANCELLED;
+                release();
+                return this;
+            }
+            confirmed = true;
+            SlotOperations operations = this.operations;
+            long start = metrics != null ? System.nanoTime() : 0;
+            for (int i = 0; i < operations.size; i++) {
+                apply(operations.slots[i], operations.amounts[i], operations.replacements[i]);
+            }
+            version++;
+            if (index != null) {
+                for (int i = 0; i < operations.size; i++) {
+                    updateIndex(operations.slots[i]);
+                }
+            }
+            long observersStart = metrics != null ? System.nanoTime() : 0;
+            if (!observers.isEmpty()) {
+                for (int i = 0; i < operations.size; i++) {
+                    observers.markChanged(operations.slots[i]);
+                }
+            }
+            // observers may plan on this handler, they get other arrays until these are released
             activeTransaction = null;
+            observers.changed();
+            if (metrics != null) {
+                long end = System.nanoTime();
+                metrics.onObserversNotified(end - observersStart);
+                metrics.onConfirm(end - start);
+            }
+            release();
             return this;
         }
 
         @Override
         public boolean isValid() {
-            return activeTransaction == this;
+            return operations != null && activeTransaction == this;
         }
 
         @Nonnull
         @Override
         public TransactionType getType() {
-            return TransactionType.SUCCESS;
+            return type;
         }
     }
 }
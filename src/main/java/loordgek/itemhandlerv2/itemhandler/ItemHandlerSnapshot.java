@@ -0,0 +1,80 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An immutable view of an {@link ItemHandler} at one point in time, it can be read from any thread.
+ * <p/>
+ * It shares the unchanged parts of the storage with the handler, so taking one costs nothing and the handler
+ * only copies the chunks of 64 slots it writes afterwards. The stacks must not be modified.
+ * All transactions are {@link TransactionType#INVALID}.
+ */
+public class ItemHandlerSnapshot implements IItemHandler {
+    private static final int SHIFT = 6;
+    private static final int MASK = (1 << SHIFT) - 1;
+    private final IItemHandler handler;
+    private final ItemStack[][] chunks;
+    private final int size;
+    private final long version;
+
+    ItemHandlerSnapshot(IItemHandler handler, ItemStack[][] chunks, int size, long version) {
+        this.handler = handler;
+        this.chunks = chunks;
+        this.size = size;
+        this.version = version;
+    }
+
+    /**
+     * Gets the version of the handler this snapshot was taken at, see {@link ItemHandler#getVersion()}.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackInSlot(int slot) {
+        return chunks[slot >>> SHIFT][slot & MASK];
+    }
+
+    /**
+     * Asks the handler, so subclasses of {@link ItemHandler} that are read from other threads must keep it thread safe.
+     */
+    @Override
+    public int getSlotLimit(int slot) {
+        return handler.getSlotLimit(slot);
+    }
+
+    @Override
+    public ITransaction setStack(int slot, ItemStack stack) {
+        return ITransaction.INVALID;
+    }
+
+    @Override
+    public ITransaction insert(int slot, ItemStack stack) {
+        return ITransaction.INVALID;
+    }
+
+    @Override
+    public ITransaction insert(ItemStack stack) {
+        return ITransaction.INVALID;
+    }
+
+    @Override
+    public ITransaction extract(int slot, int amount) {
+        return ITransaction.INVALID;
+    }
+
+    @Override
+    public ITransaction extract(IStackFilter filter, int amount) {
+        return ITransaction.INVALID;
+    }
+}
@@ -0,0 +1,104 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * The identity of an {@link ItemStack}: item, metadata and NBT, without the count.
+ * <p/>
+ * Keys made with {@link #of(ItemStack)} share the NBT of the stack and are only safe as lookup keys,
+ * use {@link #toImmutable()} or {@link #intern()} before storing a key.
+ * <p/>
+ * The hash is computed once, so comparing keys only walks the NBT when the hashes are equal
+ * and the keys are not the same instance.
+ */
+public final class ItemKey {
+    private static final Interner<ItemKey> INTERNER = Interners.newWeakInterner();
+    private final Item item;
+    private final int meta;
+    @Nullable
+    private final NBTTagCompound tag;
+    private final int hash;
+
+    private ItemKey(Item item, int meta, @Nullable NBTTagCompound tag) {
+        this.item = item;
+        this.meta = meta;
+        this.tag = tag;
+        this.hash = 31 * (31 * item.hashCode() + meta) + (tag == null ? 0 : tag.hashCode());
+    }
+
+    /**
+     * Creates a lookup key for a non empty stack.
+     */
+    @Nonnull
+    public static ItemKey of(@Nonnull ItemStack stack) {
+        return new ItemKey(stack.getItem(), stack.getMetadata(), stack.getTagCompound());
+    }
+
+    /**
+     * Gets a key that does not share NBT with the stack it was made from.
+     */
+    @Nonnull
+    public ItemKey toImmutable() {
+        return tag == null ? this : new ItemKey(item, meta, tag.copy());
+    }
+
+    /**
+     * Gets the shared instance of this identity, interned keys with the same identity are the same instance
+     * and can be compared by reference. The returned key does not share NBT with any stack.
+     */
+    @Nonnull
+    public ItemKey intern() {
+        return INTERNER.intern(toImmutable());
+    }
+
+    public Item getItem() {
+        return item;
+    }
+
+    public int getMeta() {
+        return meta;
+    }
+
+    /**
+     * Checks if the stack has this identity, the count is ignored.
+     */
+    public boolean matches(@Nonnull ItemStack stack) {
+        return !stack.isEmpty() && stack.getItem() == item && stack.getMetadata() == meta && Objects.equals(stack.getTagCompound(), tag);
+    }
+
+    /**
+     * Creates a new stack with this identity.
+     */
+    @Nonnull
+    public ItemStack toStack(int count) {
+        if (count <= 0)
+            return ItemStack.EMPTY;
+        ItemStack stack = new ItemStack(item, count, meta);
+        if (tag != null)
+            stack.setTagCompound(tag.copy());
+        return stack;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ItemKey))
+            return false;
+        ItemKey other = (ItemKey) o;
+        return hash == other.hash && item == other.item && meta == other.meta && Objects.equals(tag, other.tag);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
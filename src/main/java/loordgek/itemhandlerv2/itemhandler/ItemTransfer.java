@@ -0,0 +1,98 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.filter.ItemFilter;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Moves items from one handler straight into another.
+ * <p/>
+ * Both sides are planned before anything changes: the extract decides the item, the destination is asked how much
+ * of it fits, and only that amount is taken from the source. The destination is confirmed first since it copies
+ * the stack of the source, then the source. Nothing is copied on the way, and when both handlers are
+ * {@link ItemHandler}s the extract is cut down to what fits instead of planned again.
+ * <p/>
+ * If the source is no longer valid after the destination confirmed, or it cancels its transaction like a
+ * {@link ConcurrentItemHandler} changed by another thread can, the insert is undone. A destination that is an
+ * {@link IJournaledItemHandler} is rolled back exactly and its observers are held back until both sides are
+ * confirmed, other destinations get the same amount of the item taken back out of any of their slots.
+ * A journaled destination that is already in a {@link TransactionGroup} is treated like the other destinations,
+ * its observers are held back by that group.
+ */
+public final class ItemTransfer {
+
+    private ItemTransfer() {
+    }
+
+    /**
+     * Moves up to max items of the first stack that matches the filter.
+     *
+     * @return the amount of items moved
+     */
+    public static int transfer(IItemHandler source, IItemHandler destination, IStackFilter filter, int max) {
+        // a handler that plans one transaction at a time can not plan both sides at once
+        if (max <= 0 || source == destination)
+            return 0;
+        if (source instanceof ItemHandler && destination instanceof ItemHandler)
+            return ((ItemHandler) source).transferTo((ItemHandler) destination, filter, max);
+
+        ITransaction extract = source.extract(filter, max);
+        if (!extract.getType().isSuccess())
+            return 0;
+        ItemStack prototype = extract.getResultUnsafe();
+        int amount = extract.getResultAmount();
+        ITransaction insert = destination.insert(prototype, amount);
+        if (!insert.getType().isSuccess()) {
+            extract.cancel();
+            return 0;
+        }
+        int accepted = amount - insert.getResultAmount();
+        if (accepted < amount) {
+            extract.cancel();
+            extract = source.extract(new ItemFilter(prototype), accepted);
+            if (!extract.getType().isSuccess() || extract.getResultAmount() != accepted)
+                return cancel(extract, insert);
+        }
+        return confirm(destination, extract, insert, prototype, accepted);
+    }
+
+    /**
+     * Confirms two planned transactions, the destination first since it copies the stack of the source.
+     * When the source turns out invalid or cancels afterwards the insert is rolled back.
+     */
+    static int confirm(IItemHandler destination, ITransaction extract, ITransaction insert, ItemStack prototype, int accepted) {
+        if (!extract.isValid() || !insert.isValid())
+            return cancel(extract, insert);
+        // a group also holds back the observers of the destination until the source is confirmed
+        TransactionGroup group = null;
+        IStackFilter inserted = null;
+        if (destination instanceof IJournaledItemHandler && !((IJournaledItemHandler) destination).isJournaling())
+            group = new TransactionGroup(destination);
+        else inserted = new ItemFilter(prototype);
+        try {
+            if (!insert.confirm().getType().isSuccess()) {
+                extract.cancel();
+                return 0;
+            }
+            if (!extract.isValid() || !extract.confirm().getType().isSuccess()) {
+                extract.cancel();
+                if (inserted != null)
+                    destination.extract(inserted, accepted).confirm();
+                return 0;
+            }
+            if (group != null)
+                group.commit();
+            return accepted;
+        } finally {
+            // rolls the insert back unless committed
+            if (group != null)
+                group.close();
+        }
+    }
+
+    private static int cancel(ITransaction extract, ITransaction insert) {
+        extract.cancel();
+        insert.cancel();
+        return 0;
+    }
+}
@@ -0,0 +1,405 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.observer.BackpressurePolicy;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserver;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserverble;
+import loordgek.itemhandlerv2.observer.ObserverList;
+import loordgek.itemhandlerv2.util.SlotBitSet;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+
+/**
+ * A handler for bulk storage that keeps one entry per item identity with a {@code long} count.
+ * <p/>
+ * Every identity lives in its own slot, so the slot view stays usable by {@link SlotItemHandler} and other
+ * slot based callers, while {@link #insert(ItemStack)} finds the slot of an item with one hash lookup.
+ * The stacks returned by {@link #getStackInSlot(int)} are views owned by this handler and must not be modified,
+ * their count is capped at {@link Integer#MAX_VALUE}, use {@link #getCount(int)} for the real count.
+ * {@link #getStackForModification(int)} hands out a copy instead, its change in count is added to the real count.
+ * <p/>
+ * Only item, metadata and NBT are kept, capabilities that are not stored in NBT are lost.
+ */
+public class MassItemHandler implements IItemHandler, IItemHandlerObserverble {
+    private final ObserverList observers = new ObserverList(this);
+    private final Object2IntOpenHashMap<ItemKey> slotByKey = new Object2IntOpenHashMap<>();
+    private final SlotBitSet usedSlots;
+    private final ItemKey[] keys;
+    private final ItemStack[] views;
+    private final long[] counts;
+    /**
+     * The copies handed out for modification, null for the slots that have none.
+     */
+    private final ItemStack[] modifiable;
+    private final long capacity;
+    @Nullable
+    private Transaction activeTransaction = null;
+
+    /**
+     * @param types    the amount of distinct items this handler can hold
+     * @param capacity the amount of items it can hold per item
+     */
+    public MassItemHandler(int types, long capacity) {
+        this.usedSlots = new SlotBitSet(types);
+        this.keys = new ItemKey[types];
+        this.views = new ItemStack[types];
+        this.counts = new long[types];
+        this.modifiable = new ItemStack[types];
+        this.capacity = capacity;
+        this.slotByKey.defaultReturnValue(-1);
+        for (int i = 0; i < types; i++) {
+            views[i] = ItemStack.EMPTY;
+        }
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackInSlot(int slot) {
+        return views[slot];
+    }
+
+    /**
+     * Gets a copy of the view of the slot, the same copy until the slot changes.
+     */
+    @Nonnull
+    @Override
+    public ItemStack getStackForModification(int slot) {
+        if (keys[slot] == null)
+            return ItemStack.EMPTY;
+        if (modifiable[slot] == null)
+            modifiable[slot] = views[slot].copy();
+        return modifiable[slot];
+    }
+
+    /**
+     * Writes the copy of the slot back, the planned transaction is no longer valid. The difference in count
+     * between the copy and the view is added to the real count, so counts above {@link Integer#MAX_VALUE} are kept.
+     * An item that changed into one stored in another slot is moved to that slot.
+     */
+    @Override
+    public void onStackChanged(int slot) {
+        ItemStack stack = modifiable[slot];
+        if (stack == null)
+            return;
+        activeTransaction = null;
+        long count = counts[slot] + stack.getCount() - views[slot].getCount();
+        if (stack.isEmpty() || count <= 0) {
+            write(slot, null, 0);
+        } else {
+            ItemKey key = ItemKey.of(stack);
+            int current = slotByKey.getInt(key);
+            if (current == slot) {
+                write(slot, keys[slot], count);
+            } else if (current == -1) {
+                write(slot, key.intern(), count);
+            } else {
+                write(current, keys[current], Math.min(counts[current] + count, capacity));
+                write(slot, null, 0);
+                observers.markChanged(current);
+            }
+        }
+        observers.markChanged(slot);
+        observers.changed();
+    }
+
+    @Override
+    public int getSlotLimit(int slot) {
+        return (int) Math.min(capacity, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void forEachNonEmpty(ISlotConsumer consumer) {
+        for (int slot = usedSlots.nextSetBit(0); slot != -1; slot = usedSlots.nextSetBit(slot + 1)) {
+            consumer.accept(slot, views[slot]);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Spliterator<ItemStack> nonEmptySpliterator() {
+        return new NonEmptySpliterator(this, usedSlots);
+    }
+
+    /**
+     * Gets the real count of the item in the slot.
+     */
+    public long getCount(int slot) {
+        return counts[slot];
+    }
+
+    @Override
+    public long countOf(ItemStack stack) {
+        if (stack.isEmpty())
+            return 0;
+        int slot = slotByKey.getInt(ItemKey.of(stack));
+        return slot == -1 ? 0 : counts[slot];
+    }
+
+    @Override
+    public long countOf(IStackFilter filter) {
+        Set<Item> candidates = filter.getCandidateItems();
+        long count = 0;
+        for (int slot = usedSlots.nextSetBit(0); slot != -1; slot = usedSlots.nextSetBit(slot + 1)) {
+            if ((candidates == null || candidates.contains(keys[slot].getItem())) && filter.test(views[slot]))
+                count += counts[slot];
+        }
+        return count;
+    }
+
+    /**
+     * Gets the slot of the identity of the stack, or a free slot when it is not stored yet, or -1.
+     */
+    private int findSlot(ItemKey key) {
+        int slot = slotByKey.getInt(key);
+        if (slot == -1) {
+            slot = usedSlots.nextClearBit(0);
+            if (slot >= size())
+                return -1;
+        }
+        return slot;
+    }
+
+    /**
+     * Checks if the stack may go in the slot, an identity can only live in one slot.
+     */
+    private boolean canUseSlot(int slot, ItemKey key) {
+        int current = slotByKey.getInt(key);
+        return current == slot || (current == -1 && keys[slot] == null);
+    }
+
+    private long getRoom(int slot) {
+        return capacity - counts[slot];
+    }
+
+    @Override
+    public ITransaction setStack(int slot, ItemStack stack) {
+        if (stack.isEmpty()) {
+            if (keys[slot] == null)
+                return ITransaction.UNDEFINED;
+            return newTransaction(slot, null, 0, stack, 0);
+        }
+        ItemKey key = ItemKey.of(stack);
+        int current = slotByKey.getInt(key);
+        if (current != -1 && current != slot)
+            return ITransaction.INVALID;
+        long count = Math.min(stack.getCount(), capacity);
+        return newTransaction(slot, current == slot ? keys[slot] : key.intern(), count, stack, (int) (stack.getCount() - count));
+    }
+
+    @Override
+    public ITransaction insert(int slot, ItemStack stack) {
+        if (stack.isEmpty())
+            return ITransaction.UNDEFINED;
+        ItemKey key = ItemKey.of(stack);
+        if (!canUseSlot(slot, key))
+            return ITransaction.INVALID;
+        return planInsert(slot, key, stack);
+    }
+
+    @Override
+    public ITransaction insert(ItemStack stack) {
+        if (stack.isEmpty())
+            return ITransaction.INVALID;
+        ItemKey key = ItemKey.of(stack);
+        int slot = findSlot(key);
+        if (slot == -1)
+            return ITransaction.FAILURE;
+        return planInsert(slot, key, stack);
+    }
+
+    private ITransaction planInsert(int slot, ItemKey key, ItemStack stack) {
+        long toInsert = Math.min(getRoom(slot), stack.getCount());
+        if (toInsert <= 0)
+            return ITransaction.FAILURE;
+        int remainder = (int) (stack.getCount() - toInsert);
+        return newTransaction(slot, keys[slot] != null ? keys[slot] : key.intern(), counts[slot] + toInsert,
+                remainder == 0 ? ItemStack.EMPTY : stack, remainder);
+    }
+
+    @Override
+    public ITransaction extract(int slot, int amount) {
+        if (amount == 0)
+            return ITransaction.UNDEFINED;
+        if (keys[slot] == null)
+            return ITransaction.FAILURE;
+        return planExtract(slot, amount);
+    }
+
+    @Override
+    public ITransaction extract(IStackFilter filter, int amount) {
+        if (amount == 0)
+            return ITransaction.UNDEFINED;
+        Set<Item> candidates = filter.getCandidateItems();
+        for (int slot = usedSlots.nextSetBit(0); slot != -1; slot = usedSlots.nextSetBit(slot + 1)) {
+            if ((candidates == null || candidates.contains(keys[slot].getItem())) && filter.test(views[slot]))
+                return planExtract(slot, amount);
+        }
+        return ITransaction.FAILURE;
+    }
+
+    private ITransaction planExtract(int slot, int amount) {
+        int toExtract = (int) Math.min(counts[slot], amount);
+        long count = counts[slot] - toExtract;
+        return newTransaction(slot, count == 0 ? null : keys[slot], count, views[slot], toExtract);
+    }
+
+    @Override
+    public int getInsertableAmount(int slot, ItemStack stack) {
+        if (stack.isEmpty() || !canUseSlot(slot, ItemKey.of(stack)))
+            return 0;
+        return (int) Math.min(getRoom(slot), stack.getCount());
+    }
+
+    @Override
+    public int getInsertableAmount(ItemStack stack) {
+        if (stack.isEmpty())
+            return 0;
+        int slot = findSlot(ItemKey.of(stack));
+        return slot == -1 ? 0 : (int) Math.min(getRoom(slot), stack.getCount());
+    }
+
+    @Override
+    public int getExtractableAmount(int slot, int amount) {
+        return amount <= 0 ? 0 : (int) Math.min(counts[slot], amount);
+    }
+
+    @Override
+    public int getExtractableAmount(IStackFilter filter, int amount) {
+        if (amount <= 0)
+            return 0;
+        Set<Item> candidates = filter.getCandidateItems();
+        for (int slot = usedSlots.nextSetBit(0); slot != -1; slot = usedSlots.nextSetBit(slot + 1)) {
+            if ((candidates == null || candidates.contains(keys[slot].getItem())) && filter.test(views[slot]))
+                return (int) Math.min(counts[slot], amount);
+        }
+        return 0;
+    }
+
+    @Override
+    public void addObserver(IItemHandlerObserver observer) {
+        observers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(IItemHandlerObserver observer) {
+        observers.remove(observer);
+    }
+
+    @Override
+    public void setCoalescing(boolean coalescing) {
+        observers.setCoalescing(coalescing);
+    }
+
+    @Override
+    public void flushObservers() {
+        observers.flush();
+    }
+
+    @Override
+    public void setAsyncDispatch(@Nullable Executor executor, int capacity, BackpressurePolicy policy) {
+        observers.setAsync(executor, capacity, policy);
+    }
+
+    @Override
+    public boolean isNotifyingDirectly() {
+        return !observers.isCoalescing() && !observers.isAsync();
+    }
+
+    private Transaction newTransaction(int slot, @Nullable ItemKey key, long count, ItemStack result, int resultAmount) {
+        Transaction transaction = new Transaction(slot, key, count, result, resultAmount);
+        activeTransaction = transaction;
+        return transaction;
+    }
+
+    private void write(int slot, @Nullable ItemKey key, long count) {
+        modifiable[slot] = null;
+        if (key == null || count <= 0) {
+            if (keys[slot] != null)
+                slotByKey.removeInt(keys[slot]);
+            keys[slot] = null;
+            views[slot] = ItemStack.EMPTY;
+            counts[slot] = 0;
+            usedSlots.remove(slot);
+            return;
+        }
+        if (keys[slot] != key) {
+            if (keys[slot] != null)
+                slotByKey.removeInt(keys[slot]);
+            slotByKey.put(key, slot);
+            keys[slot] = key;
+            views[slot] = key.toStack(1);
+            usedSlots.add(slot);
+        }
+        counts[slot] = count;
+        views[slot].setCount((int) Math.min(count, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Sets one slot to a new identity and count, the values are planned against the state at creation
+     * and stay correct as long as the transaction is valid. A confirm that finds it invalid applies nothing and
+     * reports {@link TransactionType#CANCELLED}.
+     */
+    private class Transaction extends AbstractTransaction {
+        private final int slot;
+        @Nullable
+        private final ItemKey key;
+        private final long count;
+        private TransactionType type = TransactionType.SUCCESS;
+        private boolean confirmed;
+
+        private Transaction(int slot, @Nullable ItemKey key, long count, ItemStack result, int resultAmount) {
+            super(result, resultAmount);
+            this.slot = slot;
+            this.key = key;
+            this.count = count;
+        }
+
+        @Override
+        @Nonnull
+        public ITransaction cancel() {
+            if (activeTransaction == this)
+                activeTransaction = null;
+            return this;
+        }
+
+        @Override
+        @Nonnull
+        public ITransaction confirm() {
+            if (confirmed)
+                return this;
+            if (!isValid()) {
+                type = TransactionType.CANCELLED;
+                return this;
+            }
+            confirmed = true;
+            write(slot, key, count);
+            observers.markChanged(slot);
+            observers.changed();
+            activeTransaction = null;
+            return this;
+        }
+
+        @Override
+        public boolean isValid() {
+            return activeTransaction == this;
+        }
+
+        @Nonnull
+        @Override
+        public TransactionType getType() {
+            return type;
+        }
+    }
+}
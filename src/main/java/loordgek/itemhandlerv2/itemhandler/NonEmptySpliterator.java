@@ -0,0 +1,89 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import loordgek.itemhandlerv2.util.SlotBitSet;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nullable;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Walks the non empty slots of a handler in order, splitting the range of slots in half for parallel streams.
+ * <p/>
+ * When a set of occupied slots is given only those slots are visited, otherwise every slot in the range is checked.
+ * The handler must not be modified while the spliterator is in use.
+ */
+public class NonEmptySpliterator implements Spliterator<ItemStack> {
+    private static final int MIN_SPLIT = 64;
+    private final IItemHandler handler;
+    @Nullable
+    private final SlotBitSet occupied;
+    private final int end;
+    private int slot;
+
+    /**
+     * @param occupied the slots that hold a stack, or null to check every slot
+     */
+    public NonEmptySpliterator(IItemHandler handler, @Nullable SlotBitSet occupied) {
+        this(handler, occupied, 0, handler.size());
+    }
+
+    private NonEmptySpliterator(IItemHandler handler, @Nullable SlotBitSet occupied, int slot, int end) {
+        this.handler = handler;
+        this.occupied = occupied;
+        this.slot = slot;
+        this.end = end;
+    }
+
+    private int nextSlot(int from) {
+        if (occupied != null) {
+            int next = occupied.nextSetBit(from);
+            return next == -1 ? end : Math.min(next, end);
+        }
+        while (from < end && handler.getStackInSlot(from).isEmpty()) {
+            from++;
+        }
+        return from;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ItemStack> action) {
+        int next = nextSlot(slot);
+        if (next >= end) {
+            slot = end;
+            return false;
+        }
+        slot = next + 1;
+        action.accept(handler.getStackInSlot(next));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super ItemStack> action) {
+        for (int next = nextSlot(slot); next < end; next = nextSlot(next + 1)) {
+            action.accept(handler.getStackInSlot(next));
+        }
+        slot = end;
+    }
+
+    @Nullable
+    @Override
+    public Spliterator<ItemStack> trySplit() {
+        int mid = (slot + end) >>> 1;
+        if (mid - slot < MIN_SPLIT)
+            return null;
+        NonEmptySpliterator prefix = new NonEmptySpliterator(handler, occupied, slot, mid);
+        slot = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - slot;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
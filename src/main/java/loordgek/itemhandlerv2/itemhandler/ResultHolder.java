@@ -0,0 +1,54 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.items.ItemHandlerHelper;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A reusable holder of a transaction result as a prototype stack and an amount, see {@link ITransaction#getResult(ResultHolder)}.
+ * <p/>
+ * The prototype is shared with the handler that made the result and must not be modified, its count means nothing.
+ */
+public final class ResultHolder {
+    private ItemStack prototype = ItemStack.EMPTY;
+    private int amount;
+
+    public ResultHolder set(@Nonnull ItemStack prototype, int amount) {
+        this.prototype = amount <= 0 ? ItemStack.EMPTY : prototype;
+        this.amount = prototype.isEmpty() ? 0 : Math.max(0, amount);
+        return this;
+    }
+
+    public ResultHolder clear() {
+        return set(ItemStack.EMPTY, 0);
+    }
+
+    @Nonnull
+    public ItemStack getPrototype() {
+        return prototype;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public boolean isEmpty() {
+        return amount == 0;
+    }
+
+    /**
+     * Inserts the held items into the handler without copying them.
+     */
+    public ITransaction insertInto(IItemHandler handler) {
+        return handler.insert(prototype, amount);
+    }
+
+    /**
+     * Creates a new stack with the held items, for callers that do need their own stack.
+     */
+    @Nonnull
+    public ItemStack toStack() {
+        return isEmpty() ? ItemStack.EMPTY : ItemHandlerHelper.copyStackWithSize(prototype, amount);
+    }
+}
@@ -0,0 +1,167 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.function.IntFunction;
+
+/**
+ * The bulk transaction of handlers without a bulk planner, every input is planned on its own.
+ * <p/>
+ * The inputs are planned against the current contents one by one, so inputs that compete for the same room or the
+ * same items can look better than they are. The planned transactions are kept, the transaction is valid as long as
+ * the ones that were still valid after planning all inputs are. For a handler that keeps one planned transaction
+ * at a time that is the last one, which any change to the handler invalidates.
+ * <p/>
+ * A confirm that finds it invalid applies nothing and reports {@link TransactionType#CANCELLED}.
+ * Confirming is not atomic, every input is confirmed on its own, the ones whose transaction is no longer valid
+ * are planned again first. The results are updated to what really happened, an input that fails does not undo
+ * the inputs confirmed before it.
+ */
+class SequentialBulkTransaction implements IBulkTransaction {
+    private final IntFunction<ITransaction> planner;
+    @Nullable
+    private final ItemStack[] inserted;
+    private final ItemStack[] results;
+    private final int[] amounts;
+    /**
+     * The planned transaction of every input, null for inputs that failed to plan.
+     */
+    private final ITransaction[] transactions;
+    /**
+     * The inputs whose transaction was still valid once every input was planned.
+     */
+    private final boolean[] checked;
+    private TransactionType type = TransactionType.FAILURE;
+    private boolean done;
+
+    /**
+     * @param planner  plans the transaction of one input
+     * @param inserted the stacks when inserting, a failed insert leaves the whole stack, null when extracting
+     */
+    SequentialBulkTransaction(int inputs, IntFunction<ITransaction> planner, @Nullable ItemStack[] inserted) {
+        this.planner = planner;
+        this.inserted = inserted;
+        this.results = new ItemStack[inputs];
+        this.amounts = new int[inputs];
+        this.transactions = new ITransaction[inputs];
+        this.checked = new boolean[inputs];
+        for (int i = 0; i < inputs; i++) {
+            ITransaction transaction = planner.apply(i);
+            setResult(i, transaction);
+            if (transaction.getType().isSuccess())
+                transactions[i] = transaction;
+            else transaction.cancel();
+        }
+        for (int i = 0; i < inputs; i++) {
+            checked[i] = transactions[i] != null && transactions[i].isValid();
+        }
+    }
+
+    private void setResult(int input, ITransaction transaction) {
+        if (transaction.getType().isSuccess()) {
+            type = TransactionType.SUCCESS;
+            results[input] = transaction.getResult();
+            amounts[input] = transaction.getResultAmount();
+        } else if (inserted != null) {
+            results[input] = inserted[input].copy();
+            amounts[input] = inserted[input].getCount();
+        } else {
+            results[input] = ItemStack.EMPTY;
+            amounts[input] = 0;
+        }
+    }
+
+    @Override
+    public int getInputCount() {
+        return amounts.length;
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getResult(int input) {
+        return results[input];
+    }
+
+    @Override
+    public int getResultAmount(int input) {
+        return amounts[input];
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getResult() {
+        for (ItemStack result : results) {
+            if (!result.isEmpty())
+                return result;
+        }
+        return ItemStack.EMPTY;
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getResultUnsafe() {
+        return getResult();
+    }
+
+    @Override
+    public int getResultAmount() {
+        int amount = 0;
+        for (int result : amounts) {
+            amount += result;
+        }
+        return amount;
+    }
+
+    @Nonnull
+    @Override
+    public ITransaction cancel() {
+        if (!done) {
+            for (ITransaction transaction : transactions) {
+                if (transaction != null)
+                    transaction.cancel();
+            }
+        }
+        done = true;
+        return this;
+    }
+
+    @Nonnull
+    @Override
+    public ITransaction confirm() {
+        if (done || !type.isSuccess())
+            return this;
+        if (!isValid()) {
+            cancel();
+            type = TransactionType.CANCELLED;
+            return this;
+        }
+        done = true;
+        type = TransactionType.FAILURE;
+        for (int i = 0; i < amounts.length; i++) {
+            ITransaction transaction = transactions[i];
+            if (transaction == null || !transaction.isValid())
+                transaction = planner.apply(i);
+            setResult(i, transaction.confirm());
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isValid() {
+        if (done || !type.isSuccess())
+            return false;
+        for (int i = 0; i < transactions.length; i++) {
+            if (checked[i] && !transactions[i].isValid())
+                return false;
+        }
+        return true;
+    }
+
+    @Nonnull
+    @Override
+    public TransactionType getType() {
+        return type;
+    }
+}
@@ -0,0 +1,130 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSets;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.item.Item;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps item identities to the slots holding them, and keeps track of the empty slots
+ * and the slots that still have room left.
+ * <p/>
+ * All slot sets are sorted, so walking them visits the slots in the same order as a linear scan would.
+ */
+class SlotIndex {
+    private final Map<ItemKey, IntSortedSet> slotsByKey = new Object2ObjectOpenHashMap<>();
+    private final Map<ItemKey, IntSortedSet> roomByKey = new Object2ObjectOpenHashMap<>();
+    private final Map<Item, Set<ItemKey>> keysByItem = new Reference2ObjectOpenHashMap<>();
+    private final IntSortedSet emptySlots = new IntRBTreeSet();
+    private final ItemKey[] keys;
+
+    SlotIndex(int size) {
+        this.keys = new ItemKey[size];
+        for (int i = 0; i < size; i++) {
+            emptySlots.add(i);
+        }
+    }
+
+    /**
+     * Updates the slot after it has been written.
+     *
+     * @param newKey  the identity of the stack now in the slot, the same instance as before if it did not change
+     * @param hasRoom if the stack in the slot can still grow
+     */
+    void update(int slot, @Nullable ItemKey newKey, boolean hasRoom) {
+        ItemKey oldKey = keys[slot];
+        if (oldKey != newKey) {
+            if (oldKey != null) {
+                removeSlot(oldKey, slot);
+                remove(roomByKey, oldKey, slot);
+            } else emptySlots.remove(slot);
+
+            if (newKey != null)
+                addSlot(newKey, slot);
+            else emptySlots.add(slot);
+            keys[slot] = newKey;
+        }
+        if (newKey != null) {
+            if (hasRoom)
+                add(roomByKey, newKey, slot);
+            else remove(roomByKey, newKey, slot);
+        }
+    }
+
+    @Nullable
+    ItemKey getKey(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * All the distinct identities in the inventory.
+     */
+    Set<ItemKey> getKeys() {
+        return slotsByKey.keySet();
+    }
+
+    /**
+     * All the distinct identities of the item in the inventory.
+     */
+    @Nonnull
+    Set<ItemKey> getKeys(Item item) {
+        Set<ItemKey> keys = keysByItem.get(item);
+        return keys == null ? Collections.emptySet() : keys;
+    }
+
+    @Nonnull
+    IntSortedSet getSlots(ItemKey key) {
+        IntSortedSet slots = slotsByKey.get(key);
+        return slots == null ? IntSortedSets.EMPTY_SET : slots;
+    }
+
+    @Nonnull
+    IntSortedSet getSlotsWithRoom(ItemKey key) {
+        IntSortedSet slots = roomByKey.get(key);
+        return slots == null ? IntSortedSets.EMPTY_SET : slots;
+    }
+
+    @Nonnull
+    IntSortedSet getEmptySlots() {
+        return emptySlots;
+    }
+
+    private void addSlot(ItemKey key, int slot) {
+        IntSortedSet slots = slotsByKey.get(key);
+        if (slots == null) {
+            slots = new IntRBTreeSet();
+            slotsByKey.put(key, slots);
+            keysByItem.computeIfAbsent(key.getItem(), item -> new ObjectOpenHashSet<>()).add(key);
+        }
+        slots.add(slot);
+    }
+
+    private void removeSlot(ItemKey key, int slot) {
+        IntSortedSet slots = slotsByKey.get(key);
+        if (slots != null && slots.remove(slot) && slots.isEmpty()) {
+            slotsByKey.remove(key);
+            Set<ItemKey> keys = keysByItem.get(key.getItem());
+            if (keys.remove(key) && keys.isEmpty())
+                keysByItem.remove(key.getItem());
+        }
+    }
+
+    private static void add(Map<ItemKey, IntSortedSet> map, ItemKey key, int slot) {
+        map.computeIfAbsent(key, k -> new IntRBTreeSet()).add(slot);
+    }
+
+    private static void remove(Map<ItemKey, IntSortedSet> map, ItemKey key, int slot) {
+        IntSortedSet slots = map.get(key);
+        if (slots != null && slots.remove(slot) && slots.isEmpty())
+            map.remove(key);
+    }
+}
@@ -19,13 +19,19 @@ public class SlotItemHandler extends Slot {
 
     @Override
     public boolean isItemValid(ItemStack stack) {
-        return !getItemHandler().insert(getSlotIndex(), stack).cancel().getType().isInvalid();
+        return getItemHandler().getInsertableAmount(getSlotIndex(), stack) > 0;
     }
 
     @Override
     @Nonnull
     public ItemStack getStack() {
-        return getItemHandler().getStackInSlot(getSlotIndex());
+        // the vanilla click code grows and shrinks this stack directly
+        return getItemHandler().getStackForModification(getSlotIndex());
+    }
+
+    @Override
+    public void onSlotChanged() {
+        getItemHandler().onStackChanged(getSlotIndex());
     }
 
     @Override
@@ -51,7 +57,7 @@ public class SlotItemHandler extends Slot {
 
     @Override
     public boolean canTakeStack(@Nonnull EntityPlayer playerIn) {
-        return !getItemHandler().extract(getSlotIndex(), 1).cancel().getType().isInvalid();
+        return getItemHandler().getExtractableAmount(getSlotIndex(), 1) > 0;
     }
 
     @Override
@@ -0,0 +1,64 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * The operations planned by a transaction, a grow or a replacement per slot kept in parallel arrays
+ * instead of a task object per slot.
+ */
+class SlotOperations {
+    int[] slots;
+    int[] amounts;
+    /**
+     * The stack to copy into the slot, or null to grow the stack in the slot by the amount.
+     */
+    ItemStack[] replacements;
+    int size;
+
+    SlotOperations(int capacity) {
+        this.slots = new int[capacity];
+        this.amounts = new int[capacity];
+        this.replacements = new ItemStack[capacity];
+    }
+
+    /**
+     * Grows the stack in the slot by the amount, a negative amount shrinks it.
+     */
+    void grow(int slot, int amount) {
+        add(slot, amount, null);
+    }
+
+    /**
+     * Replaces the stack in the slot with a copy of the stack with the given count.
+     */
+    void replace(int slot, ItemStack stack, int count) {
+        add(slot, count, stack);
+    }
+
+    private void add(int slot, int amount, @Nullable ItemStack replacement) {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+            amounts = Arrays.copyOf(amounts, size * 2);
+            replacements = Arrays.copyOf(replacements, size * 2);
+        }
+        slots[size] = slot;
+        amounts[size] = amount;
+        replacements[size] = replacement;
+        size++;
+    }
+
+    /**
+     * Drops the operations from the index on.
+     */
+    void truncate(int size) {
+        Arrays.fill(replacements, size, this.size, null);
+        this.size = size;
+    }
+
+    void clear() {
+        truncate(0);
+    }
+}
@@ -0,0 +1,350 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.observer.BackpressurePolicy;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserver;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserverble;
+import loordgek.itemhandlerv2.observer.ObserverList;
+import loordgek.itemhandlerv2.util.SlotBitSet;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.items.ItemHandlerHelper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+
+/**
+ * A handler for large inventories that are mostly empty, only the occupied slots are stored.
+ * <p/>
+ * The stacks live in a map keyed by slot and the occupied slots in a bitmap, so memory and the cost of
+ * {@link #insert(ItemStack)} and {@link #extract(IStackFilter, int)} grow with the amount of stacks instead of the
+ * amount of slots. Inserting first tops up the stacks of the same item and then takes the first free slots.
+ */
+public class SparseItemHandler implements IItemHandler, IItemHandlerObserverble {
+    private final ObserverList observers = new ObserverList(this);
+    private final Int2ObjectOpenHashMap<ItemStack> stacks = new Int2ObjectOpenHashMap<>();
+    private final SlotBitSet occupied;
+    private final int size;
+    @Nullable
+    private Transaction activeTransaction = null;
+
+    public SparseItemHandler(int size) {
+        this.size = size;
+        this.occupied = new SlotBitSet(size);
+        this.stacks.defaultReturnValue(ItemStack.EMPTY);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    protected int getStackLimit(int slot, ItemStack stack) {
+        return Math.min(getSlotLimit(slot), stack.getMaxStackSize());
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackInSlot(int slot) {
+        checkSlot(slot);
+        return stacks.get(slot);
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= size)
+            throw new IndexOutOfBoundsException("slot " + slot + " is not in 0 - " + size);
+    }
+
+    @Override
+    public int getSlotLimit(int slot) {
+        return 64;
+    }
+
+    @Override
+    public void onStackChanged(int slot) {
+        checkSlot(slot);
+        activeTransaction = null;
+        if (stacks.get(slot).isEmpty()) {
+            stacks.remove(slot);
+            occupied.remove(slot);
+        }
+        observers.markChanged(slot);
+        observers.changed();
+    }
+
+    @Override
+    public void forEachNonEmpty(ISlotConsumer consumer) {
+        for (int slot = occupied.nextSetBit(0); slot != -1; slot = occupied.nextSetBit(slot + 1)) {
+            consumer.accept(slot, stacks.get(slot));
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Spliterator<ItemStack> nonEmptySpliterator() {
+        return new NonEmptySpliterator(this, occupied);
+    }
+
+    @Override
+    public long countOf(ItemStack stack) {
+        if (stack.isEmpty())
+            return 0;
+        long count = 0;
+        for (int slot = occupied.nextSetBit(0); slot != -1; slot = occupied.nextSetBit(slot + 1)) {
+            ItemStack stackInSlot = stacks.get(slot);
+            if (ItemHandlerHelper.canItemStacksStack(stack, stackInSlot))
+                count += stackInSlot.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long countOf(IStackFilter filter) {
+        Set<Item> candidates = filter.getCandidateItems();
+        long count = 0;
+        for (int slot = occupied.nextSetBit(0); slot != -1; slot = occupied.nextSetBit(slot + 1)) {
+            ItemStack stackInSlot = stacks.get(slot);
+            if ((candidates == null || candidates.contains(stackInSlot.getItem())) && filter.test(stackInSlot))
+                count += stackInSlot.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public ITransaction setStack(int slot, ItemStack stack) {
+        checkSlot(slot);
+        if (stack.isEmpty() && getStackInSlot(slot).isEmpty())
+            return ITransaction.UNDEFINED;
+        int limit = Math.min(stack.getCount(), getStackLimit(slot, stack));
+
+        Transaction transaction = newTransaction(stack, stack.getCount() - limit);
+        transaction.replace(slot, stack, limit);
+        return transaction;
+    }
+
+    @Override
+    public ITransaction insert(int slot, ItemStack stack) {
+        checkSlot(slot);
+        if (stack.isEmpty())
+            return ITransaction.UNDEFINED;
+        ItemStack stackInSlot = getStackInSlot(slot);
+        if (!stackInSlot.isEmpty() && !ItemHandlerHelper.canItemStacksStack(stackInSlot, stack))
+            return ITransaction.INVALID;
+        int toInsert = Math.min(stack.getCount(), getRoom(slot, stackInSlot, stack));
+        if (toInsert <= 0)
+            return ITransaction.FAILURE;
+
+        Transaction transaction = newTransaction(stack, stack.getCount() - toInsert);
+        if (stackInSlot.isEmpty())
+            transaction.replace(slot, stack, toInsert);
+        else transaction.grow(slot, toInsert);
+        return transaction;
+    }
+
+    @Override
+    public ITransaction insert(ItemStack stack) {
+        if (stack.isEmpty())
+            return ITransaction.INVALID;
+
+        Transaction transaction = newTransaction(stack, 0);
+        int remainder = stack.getCount();
+        for (int slot = occupied.nextSetBit(0); slot != -1 && remainder > 0; slot = occupied.nextSetBit(slot + 1)) {
+            ItemStack stackInSlot = stacks.get(slot);
+            if (ItemHandlerHelper.canItemStacksStack(stackInSlot, stack)) {
+                int toInsert = Math.min(remainder, getRoom(slot, stackInSlot, stack));
+                if (toInsert > 0) {
+                    transaction.grow(slot, toInsert);
+                    remainder -= toInsert;
+                }
+            }
+        }
+        for (int slot = occupied.nextClearBit(0); slot < size && remainder > 0; slot = occupied.nextClearBit(slot + 1)) {
+            int toInsert = Math.min(remainder, getStackLimit(slot, stack));
+            if (toInsert > 0) {
+                transaction.replace(slot, stack, toInsert);
+                remainder -= toInsert;
+            }
+        }
+        if (remainder == stack.getCount()) {
+            transaction.cancel();
+            return ITransaction.FAILURE;
+        }
+        if (remainder == 0)
+            transaction.result = ItemStack.EMPTY;
+        transaction.growResult(remainder);
+        return transaction;
+    }
+
+    private int getRoom(int slot, ItemStack stackInSlot, ItemStack stack) {
+        if (stackInSlot.isEmpty())
+            return getStackLimit(slot, stack);
+        return Math.max(0, getStackLimit(slot, stack) - stackInSlot.getCount());
+    }
+
+    @Override
+    public ITransaction extract(int slot, int amount) {
+        checkSlot(slot);
+        if (amount == 0)
+            return ITransaction.UNDEFINED;
+        ItemStack stackInSlot = getStackInSlot(slot);
+        if (stackInSlot.isEmpty())
+            return ITransaction.FAILURE;
+
+        Transaction transaction = newTransaction(stackInSlot, 0);
+        planExtract(transaction, slot, stackInSlot, amount);
+        return transaction;
+    }
+
+    @Override
+    public ITransaction extract(IStackFilter filter, int amount) {
+        if (amount == 0)
+            return ITransaction.UNDEFINED;
+        Transaction transaction = newTransaction(ItemStack.EMPTY, 0);
+        Set<Item> candidates = filter.getCandidateItems();
+        int amountLeft = amount;
+        for (int slot = occupied.nextSetBit(0); slot != -1 && amountLeft > 0; slot = occupied.nextSetBit(slot + 1)) {
+            ItemStack stackInSlot = stacks.get(slot);
+            if ((candidates == null || candidates.contains(stackInSlot.getItem())) && filter.test(stackInSlot)) {
+                if (transaction.result.isEmpty())
+                    transaction.result = stackInSlot;
+                else if (!ItemHandlerHelper.canItemStacksStack(transaction.result, stackInSlot))
+                    continue;
+                amountLeft = planExtract(transaction, slot, stackInSlot, amountLeft);
+            }
+        }
+        if (!transaction.result.isEmpty())
+            return transaction;
+        transaction.cancel();
+        return ITransaction.FAILURE;
+    }
+
+    private int planExtract(Transaction transaction, int slot, ItemStack stackInSlot, int amountLeft) {
+        int toExtract = Math.min(stackInSlot.getCount(), amountLeft);
+        transaction.growResult(toExtract);
+        transaction.grow(slot, -toExtract);
+        return amountLeft - toExtract;
+    }
+
+    @Override
+    public void addObserver(IItemHandlerObserver observer) {
+        observers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(IItemHandlerObserver observer) {
+        observers.remove(observer);
+    }
+
+    @Override
+    public void setCoalescing(boolean coalescing) {
+        observers.setCoalescing(coalescing);
+    }
+
+    @Override
+    public void flushObservers() {
+        observers.flush();
+    }
+
+    @Override
+    public void setAsyncDispatch(@Nullable Executor executor, int capacity, BackpressurePolicy policy) {
+        observers.setAsync(executor, capacity, policy);
+    }
+
+    @Override
+    public boolean isNotifyingDirectly() {
+        return !observers.isCoalescing() && !observers.isAsync();
+    }
+
+    private Transaction newTransaction(ItemStack result, int resultAmount) {
+        Transaction transaction = new Transaction(result, resultAmount);
+        activeTransaction = transaction;
+        return transaction;
+    }
+
+    /**
+     * Records a grow or a replacement per slot, planned against the state at creation.
+     * A confirm that finds the transaction invalid applies nothing and reports {@link TransactionType#CANCELLED}.
+     */
+    private class Transaction extends AbstractTransaction {
+        private final SlotOperations operations = new SlotOperations(2);
+        private TransactionType type = TransactionType.SUCCESS;
+        private boolean confirmed;
+
+        private Transaction(ItemStack result, int resultAmount) {
+            super(result, resultAmount);
+        }
+
+        void grow(int slot, int amount) {
+            operations.grow(slot, amount);
+        }
+
+        void replace(int slot, ItemStack stack, int count) {
+            operations.replace(slot, stack, count);
+        }
+
+        private void apply(int slot, int amount, @Nullable ItemStack replacement) {
+            ItemStack stack;
+            if (replacement != null) {
+                stack = amount <= 0 ? ItemStack.EMPTY : ItemHandlerHelper.copyStackWithSize(replacement, amount);
+            } else {
+                stack = stacks.get(slot);
+                if (stack.getCount() + amount <= 0)
+                    stack = ItemStack.EMPTY;
+                else stack.grow(amount);
+            }
+            if (stack.isEmpty()) {
+                stacks.remove(slot);
+                occupied.remove(slot);
+            } else {
+                stacks.put(slot, stack);
+                occupied.add(slot);
+            }
+        }
+
+        @Override
+        @Nonnull
+        public ITransaction cancel() {
+            if (activeTransaction == this)
+                activeTransaction = null;
+            return this;
+        }
+
+        @Override
+        @Nonnull
+        public ITransaction confirm() {
+            if (confirmed)
+                return this;
+            if (!isValid()) {
+                type = TransactionType.CANCELLED;
+                return this;
+            }
+            confirmed = true;
+            for (int i = 0; i < operations.size; i++) {
+                apply(operations.slots[i], operations.amounts[i], operations.replacements[i]);
+            }
+            if (!observers.isEmpty()) {
+                for (int i = 0; i < operations.size; i++) {
+                    observers.markChanged(operations.slots[i]);
+                }
+            }
+            activeTransaction = null;
+            observers.changed();
+            return this;
+        }
+
+        @Override
+        public boolean isValid() {
+            return activeTransaction == this;
+        }
+
+        @Nonnull
+        @Override
+        public TransactionType getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * The stacks of an {@link ItemHandler} in chunks of 64 slots, copied on write after a snapshot.
+ * <p/>
+ * Taking a snapshot only hands out the current chunk table and starts a new epoch. The first write after that
+ * copies the table, and the first write to a chunk copies that chunk, so unchanged chunks stay shared.
+ * A stack that may be seen by a snapshot is copied before it is grown, stacks that were written in the current
+ * epoch are grown in place.
+ */
+class StackChunks {
+    private static final int SHIFT = 6;
+    private static final int MASK = (1 << SHIFT) - 1;
+    private final int size;
+    private ItemStack[][] chunks;
+    private final int[] chunkEpochs;
+    /**
+     * Per chunk, the slots holding a stack that no snapshot can see.
+     */
+    private final long[] owned;
+    private int epoch;
+    private boolean tableShared;
+
+    StackChunks(int size) {
+        this.size = size;
+        int chunkCount = (size + MASK) >>> SHIFT;
+        this.chunks = new ItemStack[chunkCount][];
+        this.chunkEpochs = new int[chunkCount];
+        this.owned = new long[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = new ItemStack[Math.min(1 << SHIFT, size - (i << SHIFT))];
+            Arrays.fill(chunks[i], ItemStack.EMPTY);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Nonnull
+    ItemStack get(int slot) {
+        return chunks[slot >>> SHIFT][slot & MASK];
+    }
+
+    void set(int slot, @Nonnull ItemStack stack) {
+        int chunk = slot >>> SHIFT;
+        writableChunk(chunk)[slot & MASK] = stack;
+        owned[chunk] |= 1L << slot;
+    }
+
+    /**
+     * Grows the stack in the slot, copying it first if a snapshot may see it.
+     */
+    void grow(int slot, int amount) {
+        int chunk = slot >>> SHIFT;
+        ItemStack[] stacks = writableChunk(chunk);
+        ItemStack stack = stacks[slot & MASK];
+        if ((owned[chunk] & 1L << slot) == 0) {
+            stack = stack.copy();
+            stacks[slot & MASK] = stack;
+            owned[chunk] |= 1L << slot;
+        }
+        stack.grow(amount);
+    }
+
+    /**
+     * Gets the stack in the slot to be modified in place, copying it first if a snapshot may see it.
+     */
+    @Nonnull
+    ItemStack getOwned(int slot) {
+        int chunk = slot >>> SHIFT;
+        ItemStack stack = chunks[chunk][slot & MASK];
+        if (stack.isEmpty() || (owned[chunk] & 1L << slot) != 0 && chunkEpochs[chunk] == epoch && !tableShared)
+            return stack;
+        stack = stack.copy();
+        set(slot, stack);
+        return stack;
+    }
+
+    private ItemStack[] writableChunk(int chunk) {
+        if (tableShared) {
+            chunks = chunks.clone();
+            tableShared = false;
+        }
+        if (chunkEpochs[chunk] != epoch) {
+            chunks[chunk] = chunks[chunk].clone();
+            chunkEpochs[chunk] = epoch;
+            owned[chunk] = 0;
+        }
+        return chunks[chunk];
+    }
+
+    /**
+     * Hands out the chunk table, neither the table nor the chunks and stacks in it are modified after this.
+     */
+    ItemStack[][] share() {
+        tableShared = true;
+        epoch++;
+        return chunks;
+    }
+}
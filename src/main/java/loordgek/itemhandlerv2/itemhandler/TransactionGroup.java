@@ -0,0 +1,105 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes the transactions confirmed on several handlers commit or roll back as one.
+ * <p/>
+ * Transactions are planned and confirmed as usual once their handlers joined the group, the changes happen right
+ * away and are recorded in an {@link UndoJournal}. {@link #rollback()} undoes them newest first, {@link #commit()}
+ * keeps them. Either way every handler notifies its observers once, and closing a group that was not committed
+ * rolls it back, so it can be used in a try with resources:
+ * <pre>
+ * try (TransactionGroup group = new TransactionGroup(input, output)) {
+ *     ...
+ *     if (done)
+ *         group.commit();
+ * }
+ * </pre>
+ */
+public class TransactionGroup implements AutoCloseable {
+    private final UndoJournal journal = new UndoJournal();
+    private final List<IJournaledItemHandler> handlers = new ArrayList<>();
+    private boolean open = true;
+
+    /**
+     * @throws IllegalArgumentException if one of the handlers can not roll back its changes, none of them joins then
+     * @throws IllegalStateException    if one of the handlers is already in a group, none of them joins then
+     */
+    public TransactionGroup(IItemHandler... handlers) {
+        for (IItemHandler handler : handlers) {
+            checkJournaled(handler);
+        }
+        try {
+            for (IItemHandler handler : handlers) {
+                join(handler);
+            }
+        } catch (RuntimeException e) {
+            // the handlers that joined would stay journaled with their observers held back
+            end();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the handler to this group, the changes confirmed on it from now on are part of the group.
+     *
+     * @throws IllegalArgumentException if the handler can not roll back its changes
+     */
+    public void join(IItemHandler handler) {
+        if (!open)
+            throw new IllegalStateException("the group is already done");
+        checkJournaled(handler);
+        IJournaledItemHandler journaled = (IJournaledItemHandler) handler;
+        if (handlers.contains(journaled))
+            return;
+        journaled.beginJournal(journal);
+        handlers.add(journaled);
+    }
+
+    private static void checkJournaled(IItemHandler handler) {
+        if (!(handler instanceof IJournaledItemHandler))
+            throw new IllegalArgumentException(handler.getClass().getName() + " can not be used in a transaction group");
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Keeps all the changes.
+     */
+    public void commit() {
+        if (!open)
+            return;
+        journal.clear();
+        end();
+    }
+
+    /**
+     * Undoes all the changes confirmed since the handlers joined.
+     */
+    public void rollback() {
+        if (!open)
+            return;
+        journal.rollback();
+        end();
+    }
+
+    private void end() {
+        open = false;
+        for (IJournaledItemHandler handler : handlers) {
+            handler.endJournal();
+        }
+        handlers.clear();
+    }
+
+    /**
+     * Rolls back unless committed.
+     */
+    @Override
+    public void close() {
+        rollback();
+    }
+}
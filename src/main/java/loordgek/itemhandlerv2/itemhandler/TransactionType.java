@@ -24,6 +24,11 @@ public enum TransactionType {
      */
     CANCELLED,
 
+    /**
+     * The operation was accepted but runs later, confirming it queues it.
+     */
+    PENDING,
+
     /**
      * something else :)
      */
@@ -45,4 +50,8 @@ public enum TransactionType {
         return this == CANCELLED;
     }
 
+    boolean isPending() {
+        return this == PENDING;
+    }
+
 }
@@ -0,0 +1,64 @@
+package loordgek.itemhandlerv2.itemhandler;
+
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * The undo entries of the changes confirmed inside a {@link TransactionGroup}, oldest first.
+ * <p/>
+ * A change that only grows or shrinks a stack is kept as a slot and a delta, the previous stack is only kept
+ * when the slot was replaced or emptied.
+ */
+public final class UndoJournal {
+    private IJournaledItemHandler[] handlers = new IJournaledItemHandler[8];
+    private int[] slots = new int[8];
+    private int[] deltas = new int[8];
+    private ItemStack[] previous = new ItemStack[8];
+    private int entries;
+
+    UndoJournal() {
+    }
+
+    /**
+     * Records a change of a slot.
+     *
+     * @param delta         the amount the stack in the slot grows by
+     * @param previousStack the stack that was in the slot if the change replaced or emptied it, it must not be
+     *                      modified afterwards
+     */
+    public void record(IJournaledItemHandler handler, int slot, int delta, @Nullable ItemStack previousStack) {
+        if (entries == slots.length) {
+            handlers = Arrays.copyOf(handlers, entries * 2);
+            slots = Arrays.copyOf(slots, entries * 2);
+            deltas = Arrays.copyOf(deltas, entries * 2);
+            previous = Arrays.copyOf(previous, entries * 2);
+        }
+        handlers[entries] = handler;
+        slots[entries] = slot;
+        deltas[entries] = delta;
+        previous[entries] = previousStack;
+        entries++;
+    }
+
+    public int size() {
+        return entries;
+    }
+
+    /**
+     * Undoes all the entries, newest first.
+     */
+    void rollback() {
+        for (int i = entries - 1; i >= 0; i--) {
+            handlers[i].undo(slots[i], deltas[i], previous[i]);
+        }
+        clear();
+    }
+
+    void clear() {
+        Arrays.fill(handlers, 0, entries, null);
+        Arrays.fill(previous, 0, entries, null);
+        entries = 0;
+    }
+}
@@ -0,0 +1,82 @@
+package loordgek.itemhandlerv2.metrics;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.regex.Pattern;
+
+/**
+ * {@code /itemhandlermetrics <dump|file <name>|reset>}, register it in the server starting event of the mod.
+ * <p/>
+ * {@code file} writes to {@code itemhandler-metrics/<name>} in the server directory.
+ */
+public class CommandItemHandlerMetrics extends CommandBase {
+    /**
+     * The files are only written in this directory of the server, a name can not point anywhere else.
+     */
+    private static final String DIRECTORY = "itemhandler-metrics";
+    private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    @Override
+    public String getName() {
+        return "itemhandlermetrics";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return "/itemhandlermetrics <dump|file <name>|reset>";
+    }
+
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 2;
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        IMetricsRegistry registry = ItemHandlerMetrics.getRegistry();
+        if (registry == null) {
+            sender.sendMessage(new TextComponentString("item handler metrics are disabled"));
+            return;
+        }
+        if (args.length == 0)
+            throw new WrongUsageException(getUsage(sender));
+        try {
+            switch (args[0]) {
+                case "dump":
+                    StringBuilder builder = new StringBuilder();
+                    registry.dump(builder);
+                    for (String line : builder.toString().split("\n")) {
+                        sender.sendMessage(new TextComponentString(line));
+                    }
+                    break;
+                case "file":
+                    if (args.length < 2)
+                        throw new WrongUsageException(getUsage(sender));
+                    if (!FILE_NAME.matcher(args[1]).matches() || args[1].contains(".."))
+                        throw new CommandException("the file name may only use letters, digits, '.', '_' and '-'");
+                    File directory = server.getFile(DIRECTORY);
+                    Files.createDirectories(directory.toPath());
+                    File file = new File(directory, args[1]);
+                    ItemHandlerMetrics.dump(file.toPath());
+                    sender.sendMessage(new TextComponentString("item handler metrics written to " + file));
+                    break;
+                case "reset":
+                    registry.reset();
+                    sender.sendMessage(new TextComponentString("item handler metrics reset"));
+                    break;
+                default:
+                    throw new WrongUsageException(getUsage(sender));
+            }
+        } catch (IOException e) {
+            throw new CommandException("could not write the item handler metrics: " + e.getMessage());
+        }
+    }
+}
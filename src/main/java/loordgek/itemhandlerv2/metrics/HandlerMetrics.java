@@ -0,0 +1,112 @@
+package loordgek.itemhandlerv2.metrics;
+
+import loordgek.itemhandlerv2.itemhandler.TransactionType;
+
+/**
+ * The counters of one handler, only updated from the thread that owns the handler.
+ */
+public class HandlerMetrics {
+    private final String name;
+    private final long[] transactions = new long[TransactionType.values().length];
+    private final LatencyHistogram confirmLatency = new LatencyHistogram();
+    private final LatencyHistogram observerLatency = new LatencyHistogram();
+    private long cancels;
+    private long inserts;
+    private long insertSlotsScanned;
+    private long extracts;
+    private long extractSlotsScanned;
+
+    public HandlerMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void onTransaction(TransactionType type) {
+        transactions[type.ordinal()]++;
+    }
+
+    public void onCancel() {
+        cancels++;
+    }
+
+    public void onConfirm(long nanos) {
+        confirmLatency.record(nanos);
+    }
+
+    public void onObserversNotified(long nanos) {
+        observerLatency.record(nanos);
+    }
+
+    /**
+     * Records the slots visited by an insert that was not aimed at a slot.
+     */
+    public void onInsertScan(int slots) {
+        inserts++;
+        insertSlotsScanned += slots;
+    }
+
+    /**
+     * Records the slots visited by an extract with a filter.
+     */
+    public void onExtractScan(int slots) {
+        extracts++;
+        extractSlotsScanned += slots;
+    }
+
+    public long getTransactions(TransactionType type) {
+        return transactions[type.ordinal()];
+    }
+
+    public long getConfirms() {
+        return confirmLatency.getCount();
+    }
+
+    public long getCancels() {
+        return cancels;
+    }
+
+    public double getSlotsScannedPerInsert() {
+        return inserts == 0 ? 0 : (double) insertSlotsScanned / inserts;
+    }
+
+    public double getSlotsScannedPerExtract() {
+        return extracts == 0 ? 0 : (double) extractSlotsScanned / extracts;
+    }
+
+    public LatencyHistogram getConfirmLatency() {
+        return confirmLatency;
+    }
+
+    public LatencyHistogram getObserverLatency() {
+        return observerLatency;
+    }
+
+    public void reset() {
+        for (int i = 0; i < transactions.length; i++) {
+            transactions[i] = 0;
+        }
+        confirmLatency.reset();
+        observerLatency.reset();
+        cancels = 0;
+        inserts = 0;
+        insertSlotsScanned = 0;
+        extracts = 0;
+        extractSlotsScanned = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name).append(':');
+        for (TransactionType type : TransactionType.values()) {
+            builder.append(' ').append(type.name().toLowerCase()).append('=').append(transactions[type.ordinal()]);
+        }
+        builder.append(" confirms=").append(getConfirms()).append(" cancels=").append(cancels);
+        builder.append(String.format(" scanned/insert=%.1f scanned/extract=%.1f", getSlotsScannedPerInsert(), getSlotsScannedPerExtract()));
+        builder.append(" confirm[").append(confirmLatency).append(']');
+        builder.append(" observers[").append(observerLatency).append(']');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package loordgek.itemhandlerv2.metrics;
+
+import java.io.IOException;
+
+/**
+ * Creates and keeps the metrics of the instrumented handlers, see {@link ItemHandlerMetrics#setRegistry}.
+ */
+public interface IMetricsRegistry {
+
+    HandlerMetrics register(String name);
+
+    void unregister(HandlerMetrics metrics);
+
+    /**
+     * Writes the metrics of all the registered handlers, one line per handler.
+     */
+    void dump(Appendable out) throws IOException;
+
+    void reset();
+}
@@ -0,0 +1,302 @@
+package loordgek.itemhandlerv2.metrics;
+
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.itemhandler.IBulkTransaction;
+import loordgek.itemhandlerv2.itemhandler.IItemHandler;
+import loordgek.itemhandlerv2.itemhandler.ISlotConsumer;
+import loordgek.itemhandlerv2.itemhandler.ITransaction;
+import loordgek.itemhandlerv2.itemhandler.TransactionType;
+import loordgek.itemhandlerv2.observer.BackpressurePolicy;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserver;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserverble;
+import net.minecraft.item.ItemStack;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+
+/**
+ * Records the transactions of any handler, for handlers that do not keep metrics themselves.
+ * <p/>
+ * Everything else is passed on, so the wrapped handler keeps its own fast paths. Use {@link #of(IItemHandler, HandlerMetrics)}
+ * to keep an {@link IItemHandlerObserverble} handler observable through the wrapper.
+ * Slot scans can not be seen from outside the handler and are not recorded.
+ */
+public class InstrumentedItemHandler implements IItemHandler {
+    private final IItemHandler handler;
+    private final HandlerMetrics metrics;
+
+    public InstrumentedItemHandler(IItemHandler handler, HandlerMetrics metrics) {
+        this.handler = handler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Wraps the handler, the wrapper is observable if the handler is.
+     */
+    public static InstrumentedItemHandler of(IItemHandler handler, HandlerMetrics metrics) {
+        if (handler instanceof IItemHandlerObserverble)
+            return new Observerble(handler, metrics);
+        return new InstrumentedItemHandler(handler, metrics);
+    }
+
+    public IItemHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public int size() {
+        return handler.size();
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackInSlot(int slot) {
+        return handler.getStackInSlot(slot);
+    }
+
+    @Override
+    public int getSlotLimit(int slot) {
+        return handler.getSlotLimit(slot);
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackForModification(int slot) {
+        return handler.getStackForModification(slot);
+    }
+
+    @Override
+    public void onStackChanged(int slot) {
+        handler.onStackChanged(slot);
+    }
+
+    @Override
+    public void forEachNonEmpty(ISlotConsumer consumer) {
+        handler.forEachNonEmpty(consumer);
+    }
+
+    @Nonnull
+    @Override
+    public Spliterator<ItemStack> nonEmptySpliterator() {
+        return handler.nonEmptySpliterator();
+    }
+
+    @Override
+    public long countOf(ItemStack stack) {
+        return handler.countOf(stack);
+    }
+
+    @Override
+    public long countOf(IStackFilter filter) {
+        return handler.countOf(filter);
+    }
+
+    @Override
+    public ITransaction setStack(int slot, ItemStack stack) {
+        return wrap(handler.setStack(slot, stack));
+    }
+
+    @Override
+    public ITransaction insert(int slot, ItemStack stack) {
+        return wrap(handler.insert(slot, stack));
+    }
+
+    @Override
+    public ITransaction insert(ItemStack stack) {
+        return wrap(handler.insert(stack));
+    }
+
+    @Override
+    public ITransaction insert(ItemStack prototype, int amount) {
+        return wrap(handler.insert(prototype, amount));
+    }
+
+    @Override
+    public IBulkTransaction insertAll(Collection<ItemStack> stacks) {
+        return wrap(handler.insertAll(stacks));
+    }
+
+    @Override
+    public ITransaction extract(int slot, int amount) {
+        return wrap(handler.extract(slot, amount));
+    }
+
+    @Override
+    public ITransaction extract(IStackFilter filter, int amount) {
+        return wrap(handler.extract(filter, amount));
+    }
+
+    @Override
+    public IBulkTransaction extractAll(List<IStackFilter> filters, int[] amounts) {
+        return wrap(handler.extractAll(filters, amounts));
+    }
+
+    @Override
+    public int getInsertableAmount(int slot, ItemStack stack) {
+        return handler.getInsertableAmount(slot, stack);
+    }
+
+    @Override
+    public int getInsertableAmount(ItemStack stack) {
+        return handler.getInsertableAmount(stack);
+    }
+
+    @Override
+    public int getExtractableAmount(int slot, int amount) {
+        return handler.getExtractableAmount(slot, amount);
+    }
+
+    @Override
+    public int getExtractableAmount(IStackFilter filter, int amount) {
+        return handler.getExtractableAmount(filter, amount);
+    }
+
+    private ITransaction wrap(ITransaction transaction) {
+        metrics.onTransaction(transaction.getType());
+        if (!transaction.isValid())
+            return transaction;
+        return new InstrumentedTransaction(transaction);
+    }
+
+    private IBulkTransaction wrap(IBulkTransaction transaction) {
+        metrics.onTransaction(transaction.getType());
+        if (!transaction.isValid())
+            return transaction;
+        return new InstrumentedBulkTransaction(transaction);
+    }
+
+    private class InstrumentedTransaction implements ITransaction {
+        private final ITransaction transaction;
+
+        private InstrumentedTransaction(ITransaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Nonnull
+        @Override
+        public ItemStack getResult() {
+            return transaction.getResult();
+        }
+
+        @Nonnull
+        @Override
+        public ItemStack getResultUnsafe() {
+            return transaction.getResultUnsafe();
+        }
+
+        @Override
+        public int getResultAmount() {
+            return transaction.getResultAmount();
+        }
+
+        @Nonnull
+        @Override
+        public ITransaction cancel() {
+            metrics.onCancel();
+            transaction.cancel();
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public ITransaction confirm() {
+            long start = System.nanoTime();
+            transaction.confirm();
+            metrics.onConfirm(System.nanoTime() - start);
+            return this;
+        }
+
+        @Override
+        public boolean isValid() {
+            return transaction.isValid();
+        }
+
+        @Nonnull
+        @Override
+        public TransactionType getType() {
+            return transaction.getType();
+        }
+    }
+
+    private class InstrumentedBulkTransaction extends InstrumentedTransaction implements IBulkTransaction {
+        private final IBulkTransaction transaction;
+
+        private InstrumentedBulkTransaction(IBulkTransaction transaction) {
+            super(transaction);
+            this.transaction = transaction;
+        }
+
+        @Override
+        public int getInputCount() {
+            return transaction.getInputCount();
+        }
+
+        @Nonnull
+        @Override
+        public ItemStack getResult(int input) {
+            return transaction.getResult(input);
+        }
+
+        @Override
+        public int getResultAmount(int input) {
+            return transaction.getResultAmount(input);
+        }
+    }
+
+    /**
+     * Passes the observers on to the handler, they are told about this wrapper instead of the handler.
+     */
+    private static class Observerble extends InstrumentedItemHandler implements IItemHandlerObserverble {
+        private final Map<IItemHandlerObserver, IItemHandlerObserver> observers = new HashMap<>();
+
+        private Observerble(IItemHandler handler, HandlerMetrics metrics) {
+            super(handler, metrics);
+        }
+
+        private IItemHandlerObserverble observerble() {
+            return (IItemHandlerObserverble) getHandler();
+        }
+
+        @Override
+        public void addObserver(IItemHandlerObserver observer) {
+            if (observers.containsKey(observer))
+                return;
+            IItemHandlerObserver forwarding = (handler, slots) -> observer.onInventoryChanged(this, slots);
+            observers.put(observer, forwarding);
+            observerble().addObserver(forwarding);
+        }
+
+        @Override
+        public void removeObserver(IItemHandlerObserver observer) {
+            IItemHandlerObserver forwarding = observers.remove(observer);
+            if (forwarding != null)
+                observerble().removeObserver(forwarding);
+        }
+
+        @Override
+        public void setCoalescing(boolean coalescing) {
+            observerble().setCoalescing(coalescing);
+        }
+
+        @Override
+        public void flushObservers() {
+            observerble().flushObservers();
+        }
+
+        @Override
+        public void setAsyncDispatch(@Nullable Executor executor, int capacity, BackpressurePolicy policy) {
+            observerble().setAsyncDispatch(executor, capacity, policy);
+        }
+
+        @Override
+        public boolean isNotifyingDirectly() {
+            return observerble().isNotifyingDirectly();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package loordgek.itemhandlerv2.metrics;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Entry point of the opt-in handler metrics.
+ * <p/>
+ * Metrics are off until a registry is set, {@link #register(String)} then returns null and the handlers
+ * only pay for a null check.
+ */
+public final class ItemHandlerMetrics {
+    @Nullable
+    private static IMetricsRegistry registry;
+
+    private ItemHandlerMetrics() {
+    }
+
+    /**
+     * Sets the registry, null turns the metrics off for handlers registered from now on.
+     */
+    public static void setRegistry(@Nullable IMetricsRegistry registry) {
+        ItemHandlerMetrics.registry = registry;
+    }
+
+    @Nullable
+    public static IMetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Registers the metrics of a handler.
+     *
+     * @return the metrics, or null if the metrics are off
+     */
+    @Nullable
+    public static HandlerMetrics register(String name) {
+        IMetricsRegistry registry = ItemHandlerMetrics.registry;
+        return registry == null ? null : registry.register(name);
+    }
+
+    public static void dump(Appendable out) throws IOException {
+        IMetricsRegistry registry = ItemHandlerMetrics.registry;
+        if (registry != null)
+            registry.dump(out);
+    }
+
+    public static void dump(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            dump(writer);
+        }
+    }
+}
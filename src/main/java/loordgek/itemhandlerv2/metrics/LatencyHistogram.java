@@ -0,0 +1,63 @@
+package loordgek.itemhandlerv2.metrics;
+
+/**
+ * A histogram of durations in nanoseconds with one bucket per power of two.
+ */
+public class LatencyHistogram {
+    private final long[] buckets = new long[64];
+    private long count;
+    private long total;
+    private long max;
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets[64 - Long.numberOfLeadingZeros(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos > max)
+            max = nanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the upper bound of the bucket that holds the percentile.
+     *
+     * @param percentile between 0 and 1
+     */
+    public long getPercentile(double percentile) {
+        long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= target && seen > 0)
+                return i == 0 ? 0 : (1L << i) - 1;
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + count + " mean=" + getMean() + "ns p50<=" + getPercentile(0.5) + "ns p99<=" + getPercentile(0.99) + "ns max=" + max + "ns";
+    }
+}
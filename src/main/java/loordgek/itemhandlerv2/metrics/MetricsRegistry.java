@@ -0,0 +1,36 @@
+package loordgek.itemhandlerv2.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the metrics in memory until they are unregistered.
+ */
+public class MetricsRegistry implements IMetricsRegistry {
+    private final List<HandlerMetrics> metrics = new ArrayList<>();
+
+    @Override
+    public synchronized HandlerMetrics register(String name) {
+        HandlerMetrics handlerMetrics = new HandlerMetrics(name);
+        metrics.add(handlerMetrics);
+        return handlerMetrics;
+    }
+
+    @Override
+    public synchronized void unregister(HandlerMetrics handlerMetrics) {
+        metrics.remove(handlerMetrics);
+    }
+
+    @Override
+    public synchronized void dump(Appendable out) throws IOException {
+        for (HandlerMetrics handlerMetrics : metrics) {
+            out.append(handlerMetrics.toString()).append('\n');
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        metrics.forEach(HandlerMetrics::reset);
+    }
+}
@@ -0,0 +1,128 @@
+package loordgek.itemhandlerv2.observer;
+
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+import loordgek.itemhandlerv2.itemhandler.IItemHandler;
+import loordgek.itemhandlerv2.util.SlotBitSet;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hands the notifications of one handler to the observers on an executor.
+ * <p/>
+ * The notifications of a handler are delivered one at a time in the order they were made, even on an executor
+ * with many threads, and every notification gets its own immutable copy of the changed slots.
+ * By the time an observer runs the handler may have changed again, the slots only tell what was changed.
+ */
+class AsyncObserverDispatcher {
+    private final IItemHandler handler;
+    private final Executor executor;
+    private final int capacity;
+    private final BackpressurePolicy policy;
+    private final Queue<Notification> queue = new ArrayDeque<>();
+    private final SlotBitSet overflow = new SlotBitSet();
+    private IItemHandlerObserver[] overflowObservers;
+    private boolean scheduled;
+    private long dropped;
+
+    AsyncObserverDispatcher(IItemHandler handler, Executor executor, int capacity, BackpressurePolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.handler = handler;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Queues a notification, the slots are copied.
+     */
+    synchronized void dispatch(IItemHandlerObserver[] observers, SlotBitSet slots) {
+        if (policy == BackpressurePolicy.COALESCE && (!overflow.isEmpty() || queue.size() >= capacity)) {
+            // once overflowing every change goes in the overflow, so it can not overtake the older ones
+            overflow.addAll(slots);
+            overflowObservers = observers;
+            return;
+        }
+        if (queue.size() >= capacity) {
+            if (policy == BackpressurePolicy.DROP) {
+                dropped++;
+                return;
+            }
+            try {
+                while (queue.size() >= capacity) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                // queue past the capacity rather than losing the change
+                Thread.currentThread().interrupt();
+            }
+        }
+        queue.add(new Notification(observers, freeze(slots)));
+        schedule();
+    }
+
+    /**
+     * Gets how many notifications were thrown away because the queue was full.
+     */
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    private void schedule() {
+        if (scheduled)
+            return;
+        scheduled = true;
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            scheduled = false;
+            throw e;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Notification notification;
+            synchronized (this) {
+                if (!overflow.isEmpty() && queue.size() < capacity) {
+                    queue.add(new Notification(overflowObservers, freeze(overflow)));
+                    overflow.clear();
+                    overflowObservers = null;
+                }
+                notification = queue.poll();
+                notifyAll();
+                if (notification == null) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            for (IItemHandlerObserver observer : notification.observers) {
+                try {
+                    observer.onInventoryChanged(handler, notification.slots);
+                } catch (RuntimeException e) {
+                    // one failing observer must not stop the delivery to the others
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+        }
+    }
+
+    private static IntSet freeze(SlotBitSet slots) {
+        return IntSets.unmodifiable(new SlotBitSet(slots));
+    }
+
+    private static class Notification {
+        private final IItemHandlerObserver[] observers;
+        private final IntSet slots;
+
+        private Notification(IItemHandlerObserver[] observers, IntSet slots) {
+            this.observers = observers;
+            this.slots = slots;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package loordgek.itemhandlerv2.observer;
+
+/**
+ * What an asynchronous dispatch does when the queue of a handler is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * The notification is thrown away, the observers never hear about those slots.
+     */
+    DROP,
+    /**
+     * The thread that confirmed the change waits until there is room in the queue.
+     * Must not be used when the executor can run on that same thread.
+     */
+    BLOCK,
+    /**
+     * The changed slots are merged into one notification that is queued as soon as there is room,
+     * the observers hear about every slot but fewer times.
+     */
+    COALESCE
+}
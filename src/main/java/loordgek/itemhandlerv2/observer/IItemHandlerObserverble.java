@@ -1,8 +1,43 @@
 package loordgek.itemhandlerv2.observer;
 
+import javax.annotation.Nullable;
+import java.util.concurrent.Executor;
+
 public interface IItemHandlerObserverble {
 
     void addObserver(IItemHandlerObserver observer);
 
     void removeObserver(IItemHandlerObserver observer);
+
+    /**
+     * When coalescing, changes are collected and the observers are only notified on {@link #flushObservers()}.
+     * The default does not coalesce, the observers keep being notified on every change.
+     */
+    default void setCoalescing(boolean coalescing) {
+    }
+
+    /**
+     * Notifies the observers of all the changes collected while coalescing.
+     */
+    default void flushObservers() {
+    }
+
+    /**
+     * Notifies the observers on the executor instead of the thread that confirmed the change, null switches back.
+     * Notifications of this handler keep their order and get an immutable copy of the changed slots.
+     *
+     * The default keeps notifying on the thread that confirmed the change.
+     *
+     * @param capacity the amount of notifications that can wait before the policy decides what happens
+     */
+    default void setAsyncDispatch(@Nullable Executor executor, int capacity, BackpressurePolicy policy) {
+    }
+
+    /**
+     * Checks if the observers are notified of a change before the confirm that made it returns, which is not the
+     * case while coalescing or dispatching asynchronously. The default does neither.
+     */
+    default boolean isNotifyingDirectly() {
+        return true;
+    }
 }
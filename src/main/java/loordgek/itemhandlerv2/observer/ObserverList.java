@@ -0,0 +1,132 @@
+package loordgek.itemhandlerv2.observer;
+
+import loordgek.itemhandlerv2.itemhandler.IItemHandler;
+import loordgek.itemhandlerv2.util.SlotBitSet;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The observers of one handler.
+ * <p/>
+ * Changed slots are collected with {@link #markChanged(int)} and handed to the observers on {@link #flush()}.
+ * When coalescing, the handler does not flush after every change so all the changes until the next explicit
+ * flush, like the end of the tick, reach the observers as one notification.
+ * <p/>
+ * The slot set passed to the observers is reused, observers that need the slots later must copy them.
+ * <p/>
+ * With {@link #setAsync(Executor, int, BackpressurePolicy)} the observers are notified on an executor instead,
+ * every notification then gets an immutable copy of the slots.
+ */
+public class ObserverList {
+    private final IItemHandler handler;
+    private final List<IItemHandlerObserver> observers = new ArrayList<>();
+    @Nullable
+    private IItemHandlerObserver[] observerArray;
+    @Nullable
+    private AsyncObserverDispatcher async;
+    private SlotBitSet changedSlots = new SlotBitSet();
+    private SlotBitSet dispatchingSlots = new SlotBitSet();
+    private boolean coalescing;
+    private boolean dispatching;
+
+    public ObserverList(IItemHandler handler) {
+        this.handler = handler;
+    }
+
+    public void add(IItemHandlerObserver observer) {
+        observers.add(observer);
+        observerArray = null;
+    }
+
+    public void remove(IItemHandlerObserver observer) {
+        observers.remove(observer);
+        observerArray = null;
+    }
+
+    public boolean isEmpty() {
+        return observers.isEmpty();
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Turning coalescing off flushes the changes collected so far.
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        if (!coalescing)
+            flush();
+    }
+
+    /**
+     * Makes the observers get notified on the executor, or on the thread that made the change again when null.
+     * Changes that are not flushed yet are flushed before switching.
+     *
+     * @param capacity the amount of notifications that can wait for the executor before the policy kicks in
+     */
+    public void setAsync(@Nullable Executor executor, int capacity, BackpressurePolicy policy) {
+        flush();
+        this.async = executor == null ? null : new AsyncObserverDispatcher(handler, executor, capacity, policy);
+    }
+
+    public boolean isAsync() {
+        return async != null;
+    }
+
+    /**
+     * Gets how many notifications were thrown away by {@link BackpressurePolicy#DROP}.
+     */
+    public long getDroppedNotifications() {
+        return async == null ? 0 : async.getDropped();
+    }
+
+    public void markChanged(int slot) {
+        if (!observers.isEmpty())
+            changedSlots.add(slot);
+    }
+
+    /**
+     * Called by the handler once a change is done, notifies the observers unless coalescing.
+     */
+    public void changed() {
+        if (!coalescing)
+            flush();
+    }
+
+    /**
+     * Notifies the observers of all the changes since the last flush.
+     */
+    public void flush() {
+        // changes made by an observer are picked up by the loop instead of a nested dispatch
+        if (dispatching)
+            return;
+        dispatching = true;
+        try {
+            if (async != null) {
+                if (!changedSlots.isEmpty()) {
+                    if (observerArray == null)
+                        observerArray = observers.toArray(new IItemHandlerObserver[0]);
+                    async.dispatch(observerArray, changedSlots);
+                    changedSlots.clear();
+                }
+                return;
+            }
+            while (!changedSlots.isEmpty()) {
+                SlotBitSet slots = changedSlots;
+                changedSlots = dispatchingSlots;
+                dispatchingSlots = slots;
+                for (int i = 0; i < observers.size(); i++) {
+                    observers.get(i).onInventoryChanged(handler, slots);
+                }
+                slots.clear();
+            }
+        } finally {
+            dispatching = false;
+        }
+    }
+}
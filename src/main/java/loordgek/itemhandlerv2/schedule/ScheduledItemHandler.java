@@ -0,0 +1,308 @@
+package loordgek.itemhandlerv2.schedule;
+
+import loordgek.itemhandlerv2.filter.IStackFilter;
+import loordgek.itemhandlerv2.itemhandler.IItemHandler;
+import loordgek.itemhandlerv2.itemhandler.ITransaction;
+import loordgek.itemhandlerv2.itemhandler.TransactionType;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.items.ItemHandlerHelper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Limits how much work a handler does per tick, the rest waits in a queue.
+ * <p/>
+ * Every operation costs one operation and a number of slot scans, {@link #insert(ItemStack)} and
+ * {@link #extract(IStackFilter, int)} count as a scan of every slot and the slot operations as one.
+ * While the budget of the current tick lasts operations go straight to the handler. After that
+ * {@link #insert(ItemStack)} returns a {@link TransactionType#PENDING} transaction that queues the stack when
+ * confirmed, and the other operations return {@link TransactionType#FAILURE}. Once the queue is full inserts fail
+ * as well, which tells producers to hold on to their items. A stack the handler has no room for is not queued either.
+ * <p/>
+ * {@link #tick()} must be called once per tick by the owner, it starts a new budget and drains the queues within it.
+ * A queued insert that does not fit stays at the head of the queue and is tried again next tick, one the handler
+ * rejects as {@link TransactionType#INVALID} is removed and given to the rejected receiver.
+ * <p/>
+ * The queued items are owned by this handler. When the owner discards it, it must call {@link #drainQueue()}
+ * and drop or store the stacks it returns, or they are lost.
+ */
+public class ScheduledItemHandler implements IItemHandler {
+    private final IItemHandler handler;
+    private final int maxOperations;
+    private final int maxSlotScans;
+    private final int maxQueued;
+    private final Deque<ItemStack> queuedInserts = new ArrayDeque<>();
+    private final Deque<QueuedExtract> queuedExtracts = new ArrayDeque<>();
+    private int operations;
+    private int slotScans;
+    private long queuedItems;
+    @Nullable
+    private Consumer<ItemStack> rejectedReceiver;
+
+    /**
+     * @param maxOperations the amount of operations per tick
+     * @param maxSlotScans  the amount of slots the operations of one tick may visit
+     * @param maxQueued     the amount of inserts and extracts that can wait in the queues
+     */
+    public ScheduledItemHandler(IItemHandler handler, int maxOperations, int maxSlotScans, int maxQueued) {
+        this.handler = handler;
+        this.maxOperations = maxOperations;
+        this.maxSlotScans = maxSlotScans;
+        this.maxQueued = maxQueued;
+    }
+
+    public IItemHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Sets what receives the queued stacks the handler rejects, without one they are dropped.
+     */
+    public void setRejectedReceiver(@Nullable Consumer<ItemStack> receiver) {
+        this.rejectedReceiver = receiver;
+    }
+
+    /**
+     * Starts the budget of a new tick and runs the queued operations it allows, inserts first.
+     */
+    public void tick() {
+        operations = 0;
+        slotScans = 0;
+        while (!queuedInserts.isEmpty() && tryUseBudget(handler.size())) {
+            ItemStack stack = queuedInserts.peekFirst();
+            ITransaction transaction = handler.insert(stack).confirm();
+            if (transaction.getType() == TransactionType.INVALID) {
+                // it would block the queue forever
+                queuedInserts.pollFirst();
+                queuedItems -= stack.getCount();
+                if (rejectedReceiver != null)
+                    rejectedReceiver.accept(stack);
+                continue;
+            }
+            // a full handler or a cancelled confirm leaves the stack untouched at the head
+            if (transaction.getType() != TransactionType.SUCCESS)
+                break;
+            int leftover = transaction.getResultAmount();
+            queuedItems -= stack.getCount() - leftover;
+            if (leftover > 0) {
+                // the handler is full, the rest waits for the next tick
+                stack.setCount(leftover);
+                break;
+            }
+            queuedInserts.pollFirst();
+        }
+        while (!queuedExtracts.isEmpty() && tryUseBudget(handler.size())) {
+            QueuedExtract extract = queuedExtracts.pollFirst();
+            extract.receiver.accept(handler.extract(extract.filter, extract.amount).confirm().getResult());
+        }
+    }
+
+    /**
+     * Queues an extract that runs in a later tick, the receiver gets what could be extracted then, which can be
+     * less than the amount or empty.
+     *
+     * @return false if the queue is full
+     */
+    public boolean queueExtract(IStackFilter filter, int amount, Consumer<ItemStack> receiver) {
+        if (getQueueDepth() >= maxQueued)
+            return false;
+        queuedExtracts.addLast(new QueuedExtract(filter, amount, receiver));
+        return true;
+    }
+
+    /**
+     * Empties the queues, the queued extracts receive an empty stack.
+     *
+     * @return the stacks that were waiting to be inserted
+     */
+    public List<ItemStack> drainQueue() {
+        List<ItemStack> stacks = new ArrayList<>(queuedInserts);
+        queuedInserts.clear();
+        queuedItems = 0;
+        while (!queuedExtracts.isEmpty()) {
+            queuedExtracts.pollFirst().receiver.accept(ItemStack.EMPTY);
+        }
+        return stacks;
+    }
+
+    /**
+     * Gets the amount of operations waiting in the queues.
+     */
+    public int getQueueDepth() {
+        return queuedInserts.size() + queuedExtracts.size();
+    }
+
+    /**
+     * Gets the amount of items waiting to be inserted.
+     */
+    public long getQueuedItems() {
+        return queuedItems;
+    }
+
+    public int getRemainingOperations() {
+        return Math.max(0, maxOperations - operations);
+    }
+
+    public int getRemainingSlotScans() {
+        return Math.max(0, maxSlotScans - slotScans);
+    }
+
+    private boolean tryUseBudget(int scans) {
+        // the first operation of a tick always runs, so a handler larger than the scan budget still makes progress
+        if (operations > 0 && (operations >= maxOperations || slotScans + scans > maxSlotScans))
+            return false;
+        operations++;
+        slotScans += scans;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return handler.size();
+    }
+
+    @Nonnull
+    @Override
+    public ItemStack getStackInSlot(int slot) {
+        return handler.getStackInSlot(slot);
+    }
+
+    @Override
+    public int getSlotLimit(int slot) {
+        return handler.getSlotLimit(slot);
+    }
+
+    @Override
+    public ITransaction setStack(int slot, ItemStack stack) {
+        return tryUseBudget(1) ? handler.setStack(slot, stack) : ITransaction.FAILURE;
+    }
+
+    @Override
+    public ITransaction insert(int slot, ItemStack stack) {
+        return tryUseBudget(1) ? handler.insert(slot, stack) : ITransaction.FAILURE;
+    }
+
+    @Override
+    public ITransaction insert(ItemStack stack) {
+        if (stack.isEmpty())
+            return ITransaction.INVALID;
+        // queued stacks go first, so a direct insert may not overtake them
+        if (queuedInserts.isEmpty() && tryUseBudget(handler.size()))
+            return handler.insert(stack);
+        if (getQueueDepth() >= maxQueued || handler.getInsertableAmount(stack) <= 0)
+            return ITransaction.FAILURE;
+        return new PendingInsert(stack);
+    }
+
+    @Override
+    public ITransaction extract(int slot, int amount) {
+        return tryUseBudget(1) ? handler.extract(slot, amount) : ITransaction.FAILURE;
+    }
+
+    @Override
+    public ITransaction extract(IStackFilter filter, int amount) {
+        return tryUseBudget(handler.size()) ? handler.extract(filter, amount) : ITransaction.FAILURE;
+    }
+
+    @Override
+    public int getInsertableAmount(int slot, ItemStack stack) {
+        return handler.getInsertableAmount(slot, stack);
+    }
+
+    @Override
+    public int getInsertableAmount(ItemStack stack) {
+        return handler.getInsertableAmount(stack);
+    }
+
+    @Override
+    public int getExtractableAmount(int slot, int amount) {
+        return handler.getExtractableAmount(slot, amount);
+    }
+
+    @Override
+    public int getExtractableAmount(IStackFilter filter, int amount) {
+        return handler.getExtractableAmount(filter, amount);
+    }
+
+    private static class QueuedExtract {
+        private final IStackFilter filter;
+        private final int amount;
+        private final Consumer<ItemStack> receiver;
+
+        private QueuedExtract(IStackFilter filter, int amount, Consumer<ItemStack> receiver) {
+            this.filter = filter;
+            this.amount = amount;
+            this.receiver = receiver;
+        }
+    }
+
+    /**
+     * Takes the whole stack, confirming queues a copy of it. Other pending inserts can fill the queue in the
+     * meantime, a confirm that finds it full reports {@link TransactionType#FAILURE}.
+     */
+    private class PendingInsert implements ITransaction {
+        private final ItemStack stack;
+        private boolean done;
+        private TransactionType type = TransactionType.PENDING;
+
+        private PendingInsert(ItemStack stack) {
+            this.stack = stack;
+        }
+
+        @Nonnull
+        @Override
+        public ItemStack getResult() {
+            return type == TransactionType.FAILURE ? stack.copy() : ItemStack.EMPTY;
+        }
+
+        @Nonnull
+        @Override
+        public ItemStack getResultUnsafe() {
+            return type == TransactionType.FAILURE ? stack : ItemStack.EMPTY;
+        }
+
+        @Override
+        public int getResultAmount() {
+            return type == TransactionType.FAILURE ? stack.getCount() : 0;
+        }
+
+        @Nonnull
+        @Override
+        public ITransaction cancel() {
+            done = true;
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public ITransaction confirm() {
+            if (done)
+                return this;
+            done = true;
+            if (getQueueDepth() >= maxQueued) {
+                type = TransactionType.FAILURE;
+                return this;
+            }
+            queuedInserts.addLast(ItemHandlerHelper.copyStackWithSize(stack, stack.getCount()));
+            queuedItems += stack.getCount();
+            return this;
+        }
+
+        @Override
+        public boolean isValid() {
+            return !done;
+        }
+
+        @Nonnull
+        @Override
+        public TransactionType getType() {
+            return type;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package loordgek.itemhandlerv2.sync;
+
+import io.netty.buffer.ByteBuf;
+import loordgek.itemhandlerv2.itemhandler.IItemHandler;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+import net.minecraftforge.items.ItemHandlerHelper;
+
+/**
+ * Client side of the delta sync, applies the packets written by an {@link ItemHandlerSyncer}.
+ */
+public class ItemHandlerSyncReceiver {
+    private final IItemHandler handler;
+    private int expectedVersion = -1;
+
+    public ItemHandlerSyncReceiver(IItemHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Applies a packet to the handler.
+     *
+     * @return false if a packet was missed, nothing is applied and the server should send a full sync
+     */
+    public boolean read(ByteBuf buf) {
+        boolean full = (buf.readByte() & ItemHandlerSyncer.FLAG_FULL) != 0;
+        int version = ByteBufUtils.readVarInt(buf, 5);
+        if (!full && version != expectedVersion)
+            return false;
+        expectedVersion = version + 1;
+
+        int position = 0;
+        int type;
+        while ((type = buf.readByte()) != ItemHandlerSyncer.END) {
+            int slot = position + ByteBufUtils.readVarInt(buf, 5);
+            switch (type) {
+                case ItemHandlerSyncer.EMPTY_RUN:
+                    int length = ByteBufUtils.readVarInt(buf, 5);
+                    for (int i = 0; i < length; i++) {
+                        setStack(slot + i, ItemStack.EMPTY);
+                    }
+                    slot += length - 1;
+                    break;
+                case ItemHandlerSyncer.COUNT:
+                    int count = ByteBufUtils.readVarInt(buf, 5);
+                    if (slot < handler.size())
+                        setStack(slot, ItemHandlerHelper.copyStackWithSize(handler.getStackInSlot(slot), count));
+                    break;
+                case ItemHandlerSyncer.STACK:
+                    ItemStack stack = ByteBufUtils.readItemStack(buf);
+                    setStack(slot, ItemHandlerHelper.copyStackWithSize(stack, ByteBufUtils.readVarInt(buf, 5)));
+                    break;
+                default:
+                    throw new IllegalStateException("unknown sync record " + type);
+            }
+            position = slot + 1;
+        }
+        return true;
+    }
+
+    private void setStack(int slot, ItemStack stack) {
+        if (slot < handler.size())
+            handler.setStack(slot, stack).confirm();
+    }
+}
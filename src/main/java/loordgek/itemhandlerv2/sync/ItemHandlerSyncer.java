@@ -0,0 +1,121 @@
+package loordgek.itemhandlerv2.sync;
+
+import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import loordgek.itemhandlerv2.itemhandler.IItemHandler;
+import loordgek.itemhandlerv2.itemhandler.ItemKey;
+import loordgek.itemhandlerv2.observer.IItemHandlerObserver;
+import loordgek.itemhandlerv2.util.SlotBitSet;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+import net.minecraftforge.items.ItemHandlerHelper;
+
+/**
+ * Server side of the delta sync, observes a handler and writes only the slots that changed since the last packet.
+ * <p/>
+ * A packet starts with a flag byte and a version, followed by slot records and an {@link #END} byte.
+ * Every record starts with its type and the number of slots skipped since the previous record:
+ * <ul>
+ * <li>{@link #EMPTY_RUN}: the length of a run of empty slots</li>
+ * <li>{@link #COUNT}: the new count, the item did not change</li>
+ * <li>{@link #STACK}: the stack with a count of one, followed by the real count</li>
+ * </ul>
+ * The client applies the packets with an {@link ItemHandlerSyncReceiver}.
+ */
+public class ItemHandlerSyncer implements IItemHandlerObserver {
+    static final int FLAG_FULL = 1;
+    static final int END = 0;
+    static final int EMPTY_RUN = 1;
+    static final int COUNT = 2;
+    static final int STACK = 3;
+
+    private final IItemHandler handler;
+    private final SlotBitSet changedSlots;
+    private final ItemKey[] sentKeys;
+    private final int[] sentCounts;
+    private int version;
+
+    public ItemHandlerSyncer(IItemHandler handler) {
+        this.handler = handler;
+        this.changedSlots = new SlotBitSet(handler.size());
+        this.sentKeys = new ItemKey[handler.size()];
+        this.sentCounts = new int[handler.size()];
+    }
+
+    @Override
+    public void onInventoryChanged(IItemHandler handler, IntSet slots) {
+        if (handler != this.handler)
+            return;
+        for (IntIterator iterator = slots.iterator(); iterator.hasNext(); ) {
+            int slot = iterator.nextInt();
+            if (slot < sentKeys.length)
+                changedSlots.add(slot);
+        }
+    }
+
+    public boolean hasChanges() {
+        return !changedSlots.isEmpty();
+    }
+
+    /**
+     * Writes the slots that changed since the last packet.
+     */
+    public void write(ByteBuf buf) {
+        write(buf, false);
+    }
+
+    /**
+     * Writes every slot, used when a client starts watching or lost track of the version.
+     */
+    public void writeFull(ByteBuf buf) {
+        for (int slot = 0; slot < sentKeys.length; slot++) {
+            changedSlots.add(slot);
+        }
+        write(buf, true);
+    }
+
+    private void write(ByteBuf buf, boolean full) {
+        buf.writeByte(full ? FLAG_FULL : 0);
+        ByteBufUtils.writeVarInt(buf, version++, 5);
+        int position = 0;
+        for (int slot = changedSlots.nextSetBit(0); slot != -1; slot = changedSlots.nextSetBit(slot + 1)) {
+            ItemStack stack = handler.getStackInSlot(slot);
+            if (stack.isEmpty()) {
+                if (!full && sentKeys[slot] == null)
+                    continue;
+                int runStart = slot;
+                sentKeys[slot] = null;
+                sentCounts[slot] = 0;
+                while (changedSlots.contains(slot + 1) && handler.getStackInSlot(slot + 1).isEmpty()) {
+                    slot++;
+                    sentKeys[slot] = null;
+                    sentCounts[slot] = 0;
+                }
+                writeRecord(buf, EMPTY_RUN, runStart - position);
+                ByteBufUtils.writeVarInt(buf, slot - runStart + 1, 5);
+            } else if (!full && sentKeys[slot] != null && sentKeys[slot].matches(stack)) {
+                if (sentCounts[slot] == stack.getCount())
+                    continue;
+                writeRecord(buf, COUNT, slot - position);
+                ByteBufUtils.writeVarInt(buf, stack.getCount(), 5);
+                sentCounts[slot] = stack.getCount();
+            } else {
+                writeRecord(buf, STACK, slot - position);
+                // the stack is written with a count of one, its own count is a byte
+                ByteBufUtils.writeItemStack(buf, ItemHandlerHelper.copyStackWithSize(stack, 1));
+                ByteBufUtils.writeVarInt(buf, stack.getCount(), 5);
+                sentKeys[slot] = ItemKey.of(stack).toImmutable();
+                sentCounts[slot] = stack.getCount();
+            }
+            position = slot + 1;
+        }
+        buf.writeByte(END);
+        changedSlots.clear();
+    }
+
+    private static void writeRecord(ByteBuf buf, int type, int skipped) {
+        buf.writeByte(type);
+        ByteBufUtils.writeVarInt(buf, skipped, 5);
+    }
+}
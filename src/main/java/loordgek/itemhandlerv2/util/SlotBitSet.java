@@ -0,0 +1,159 @@
+package loordgek.itemhandlerv2.util;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntIterator;
+import it.unimi.dsi.fastutil.ints.AbstractIntSet;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of slots backed by a bitmap, one bit per slot.
+ * <p/>
+ * Adding, removing and clearing do not allocate once the set has grown to the highest slot.
+ */
+public class SlotBitSet extends AbstractIntSet {
+    private long[] words;
+    private int size;
+
+    public SlotBitSet() {
+        this(64);
+    }
+
+    public SlotBitSet(int capacity) {
+        this.words = new long[Math.max(1, (capacity + 63) >>> 6)];
+    }
+
+    public SlotBitSet(SlotBitSet other) {
+        this.words = other.words.clone();
+        this.size = other.size;
+    }
+
+    @Override
+    public boolean add(int slot) {
+        int word = slot >>> 6;
+        if (word >= words.length)
+            words = Arrays.copyOf(words, Math.max(words.length * 2, word + 1));
+        long bit = 1L << slot;
+        if ((words[word] & bit) != 0)
+            return false;
+        words[word] |= bit;
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(int slot) {
+        int word = slot >>> 6;
+        if (word >= words.length)
+            return false;
+        long bit = 1L << slot;
+        if ((words[word] & bit) == 0)
+            return false;
+        words[word] &= ~bit;
+        size--;
+        return true;
+    }
+
+    @Override
+    public boolean contains(int slot) {
+        int word = slot >>> 6;
+        return word < words.length && (words[word] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Adds all the slots of the other set.
+     */
+    public void addAll(SlotBitSet other) {
+        if (other.words.length > words.length)
+            words = Arrays.copyOf(words, other.words.length);
+        int newSize = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (i < other.words.length)
+                words[i] |= other.words[i];
+            newSize += Long.bitCount(words[i]);
+        }
+        size = newSize;
+    }
+
+    /**
+     * Gets the first slot in this set that is equal to or higher than the given slot, or -1 if there is none.
+     */
+    public int nextSetBit(int from) {
+        int word = from >>> 6;
+        if (word >= words.length)
+            return -1;
+        long bits = words[word] & (-1L << from);
+        while (true) {
+            if (bits != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            if (++word == words.length)
+                return -1;
+            bits = words[word];
+        }
+    }
+
+    /**
+     * Gets the first slot not in this set that is equal to or higher than the given slot.
+     */
+    public int nextClearBit(int from) {
+        int word = from >>> 6;
+        if (word >= words.length)
+            return from;
+        long bits = ~words[word] & (-1L << from);
+        while (true) {
+            if (bits != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            if (++word == words.length)
+                return word << 6;
+            bits = ~words[word];
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(words, 0);
+            size = 0;
+        }
+    }
+
+    @Override
+    @Nonnull
+    public IntIterator iterator() {
+        return new AbstractIntIterator() {
+            int next = nextSetBit(0);
+            int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next == -1)
+                    throw new NoSuchElementException();
+                last = next;
+                next = nextSetBit(next + 1);
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                SlotBitSet.this.remove(last);
+            }
+        };
+    }
+}